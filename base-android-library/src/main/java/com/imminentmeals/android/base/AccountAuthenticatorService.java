@@ -17,6 +17,7 @@ import com.imminentmeals.android.base.utilities.ObjectGraph;
 import com.imminentmeals.android.base.utilities.StringUtilities;
 
 import java.io.UnsupportedEncodingException;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -196,6 +197,8 @@ public class AccountAuthenticatorService extends Service {
                     AUTOTAGLOGE(exception);
                 } catch (UnsupportedEncodingException exception) {
                     AUTOTAGLOGE(exception);
+                } catch (InvalidAlgorithmParameterException exception) {
+                    AUTOTAGLOGE(exception);
                 }
             return null;
         }
@@ -2,12 +2,14 @@ package com.imminentmeals.android.base;
 
 import android.accounts.AccountManager;
 import android.app.Application;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.net.http.HttpResponseCache;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
 
+import com.google.common.util.concurrent.Futures;
 import com.imminentmeals.android.base.activity_lifecycle_callbacks.AccountFlowCallbacks;
 import com.imminentmeals.android.base.activity_lifecycle_callbacks.DoneDiscardCallbacks;
 import com.imminentmeals.android.base.activity_lifecycle_callbacks.GoogleAnalyticsCallbacks;
@@ -19,7 +21,12 @@ import com.imminentmeals.android.base.ui.HomeActivity;
 import com.imminentmeals.android.base.utilities.AndroidCookieStore;
 import com.imminentmeals.android.base.utilities.CryptographyUtilities;
 import com.imminentmeals.android.base.utilities.ObjectGraph.ObjectGraphApplication;
+import com.imminentmeals.android.base.utilities.PersistentCookieStore;
+import com.imminentmeals.android.base.utilities.StartupPhases;
 import com.imminentmeals.android.base.utilities.StringUtilities;
+import com.imminentmeals.android.base.utilities.ThreadLocalPool;
+import com.imminentmeals.android.base.utilities.database.BaseSqliteOpenHelper;
+import com.imminentmeals.android.base.utilities.database.QueryBuilder;
 import com.squareup.otto.Bus;
 
 import java.io.File;
@@ -28,8 +35,8 @@ import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.CookieStore;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
@@ -43,9 +50,6 @@ import dagger.Module;
 import dagger.ObjectGraph;
 import dagger.Provides;
 
-import static android.util.Base64.DEFAULT;
-import static android.util.Base64.decode;
-import static android.util.Base64.encodeToString;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGE;
 
@@ -57,6 +61,7 @@ import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGE;
 public class BaseAndroidLibraryApplication extends Application implements ObjectGraphApplication {
     @Inject /* package */SharedPreferences settings;
     @Inject /* package */Lazy<CookieStore> cookie_jar;
+    @Inject /* package */Lazy<Future<SecretKey>> secret_key;
     @Inject protected AccountFlowCallbacks account_flow_callbacks;
     @Inject protected GoogleAnalyticsCallbacks google_analytics_callbacks;
     @Inject protected InjectionCallbacks injection_callbacks;
@@ -68,42 +73,89 @@ public class BaseAndroidLibraryApplication extends Application implements Object
     /** Name to associate with the name of the auth token stored in a cookie */
     public static final String COOKIE_AUTH_TOKEN = "cookie auth token";
     @Inject @Named(COOKIE_AUTH_TOKEN)/* package */String cookie_auth_token;
+    /** Startup phase that creates the object graph and injects the application */
+    public static final String PHASE_OBJECT_GRAPH = "object graph";
+    /** Startup phase that registers the Activity lifecycle callbacks */
+    public static final String PHASE_LIFECYCLE_CALLBACKS = "lifecycle callbacks";
+    /** Startup phase that starts provisioning the secret key, see {@link CryptographyUtilities#provisionKey(SharedPreferences)} */
+    public static final String PHASE_SECRET_KEY = "secret key";
+    /** Startup phase that warms up the databases, see {@link #shouldWarmUpDatabases()} */
+    public static final String PHASE_DATABASE_WARM_UP = "database warm-up";
+    /** Startup phase that enables the HTTP response cache */
+    public static final String PHASE_HTTP_CACHE = "HTTP cache";
+    /** Startup phase that installs the cookie manager, when an auth token key is provided */
+    public static final String PHASE_COOKIE_MANAGER = "cookie manager";
 
 /* Lifecycle */
     @Override
     public void onCreate() {
         super.onCreate();
 
-        if (_object_graph == null) prepareObjectGraph();
+        final StartupPhases phases = new StartupPhases(new StartupPhases.Listener() {
+            @Override
+            public void onPhaseFinished(String phase, StartupPhases.Priority priority, long duration) {
+                onStartupPhaseFinished(phase, priority, duration);
+            }
+        });
+
+        phases.run(PHASE_OBJECT_GRAPH, startupPriority(PHASE_OBJECT_GRAPH), new Runnable() {
+            @Override
+            public void run() {
+                if (_object_graph == null) prepareObjectGraph();
+            }
+        });
 
         // TODO: setDefaultPreferences here
 
         // Registers the Activity lifecycle callbacks
-        registerActivityLifecycleCallbacks(account_flow_callbacks);
-        registerActivityLifecycleCallbacks(google_analytics_callbacks);
-        registerActivityLifecycleCallbacks(injection_callbacks);
-        registerActivityLifecycleCallbacks(sync_callbacks);
-        registerActivityLifecycleCallbacks(done_discard_callbacks);
-
-        // Establishes a secret key on initial launch
-        if (!settings.contains(CryptographyUtilities.KEY_SECRET_KEY))
-            try {
-                settings.edit()
-                    .putString(CryptographyUtilities.KEY_SECRET_KEY,
-                                   encodeToString(CryptographyUtilities.generateKey().getEncoded(), DEFAULT))
-                    .apply();
-            } catch (NoSuchAlgorithmException error) {
-                AUTOTAGLOGE(error);
+        phases.run(PHASE_LIFECYCLE_CALLBACKS, startupPriority(PHASE_LIFECYCLE_CALLBACKS), new Runnable() {
+            @Override
+            public void run() {
+                registerActivityLifecycleCallbacks(account_flow_callbacks);
+                registerActivityLifecycleCallbacks(google_analytics_callbacks);
+                registerActivityLifecycleCallbacks(injection_callbacks);
+                registerActivityLifecycleCallbacks(sync_callbacks);
+                registerActivityLifecycleCallbacks(done_discard_callbacks);
             }
+        });
+
+        // Starts provisioning the secret key, which is generated in the background on initial launch
+        phases.run(PHASE_SECRET_KEY, startupPriority(PHASE_SECRET_KEY), new Runnable() {
+            @Override
+            public void run() {
+                secret_key.get();
+            }
+        });
+
+        // Opens the databases in the background, ahead of their first query
+        if (shouldWarmUpDatabases())
+            phases.run(PHASE_DATABASE_WARM_UP, startupPriority(PHASE_DATABASE_WARM_UP), new Runnable() {
+                @Override
+                public void run() {
+                    warmUpDatabases();
+                }
+            });
 
         // Enables HTTP response caching
-        enableHttpResponseCache();
+        phases.run(PHASE_HTTP_CACHE, startupPriority(PHASE_HTTP_CACHE), new Runnable() {
+            @Override
+            public void run() {
+                enableHttpResponseCache();
+            }
+        });
 
-        // Enables auth token cookie persistence when an auth token key is provided
-        if (!StringUtilities.isEmpty(cookie_auth_token)) {
-            final CookieManager cookie_manager = new CookieManager(cookie_jar.get(), CookiePolicy.ACCEPT_ORIGINAL_SERVER);
-            CookieHandler.setDefault(cookie_manager);
-        }
+        // Enables cookie persistence when an auth token key is provided
+        if (!StringUtilities.isEmpty(cookie_auth_token))
+            phases.run(PHASE_COOKIE_MANAGER, startupPriority(PHASE_COOKIE_MANAGER), new Runnable() {
+                @Override
+                public void run() {
+                    final CookieManager cookie_manager = new CookieManager(cookie_jar.get(),
+                                                                           CookiePolicy.ACCEPT_ORIGINAL_SERVER);
+                    CookieHandler.setDefault(cookie_manager);
+                }
+            });
+
+        phases.finish();
     }
 
     @Override
@@ -200,7 +252,11 @@ public class BaseAndroidLibraryApplication extends Application implements Object
             return _context;
         }
 
-        @Provides SecretKey provideSecretKey(final SharedPreferences settings) {
+        @Provides @Singleton Future<SecretKey> provideSecretKeyProvisioning(SharedPreferences settings) {
+            return CryptographyUtilities.provisionKey(settings);
+        }
+
+        @Provides SecretKey provideSecretKey(final Future<SecretKey> secret_key) {
             return new SecretKey() {
 
                 @Override
@@ -215,7 +271,8 @@ public class BaseAndroidLibraryApplication extends Application implements Object
 
                 @Override
                 public byte[] getEncoded() {
-                    return decode(settings.getString(CryptographyUtilities.KEY_SECRET_KEY, ""), DEFAULT);
+                    // Waits for the key to be provisioned
+                    return Futures.getUnchecked(secret_key).getEncoded();
                 }
 
                 private static final long serialVersionUID = 4664651834175207772L;
@@ -226,6 +283,40 @@ public class BaseAndroidLibraryApplication extends Application implements Object
             return cookie_jar;
         }
 
+        @Provides @Singleton PersistentCookieStore providePersistentCookieStore(CryptographyUtilities crypto) {
+            return new PersistentCookieStore(new File(_context.getFilesDir(), _COOKIE_FILE), crypto);
+        }
+
+        @Provides @Singleton ThreadLocalPool<QueryBuilder> provideQueryBuilderPool() {
+            return new ThreadLocalPool<>(new ThreadLocalPool.Factory<QueryBuilder>() {
+
+                @Override
+                public QueryBuilder create() {
+                    return new QueryBuilder(_context);
+                }
+
+                @Override
+                public void reset(QueryBuilder query) {
+                    query.reset();
+                }
+            });
+        }
+
+        @Provides @Singleton ThreadLocalPool<ContentValues> provideContentValuesPool() {
+            return new ThreadLocalPool<>(new ThreadLocalPool.Factory<ContentValues>() {
+
+                @Override
+                public ContentValues create() {
+                    return new ContentValues();
+                }
+
+                @Override
+                public void reset(ContentValues values) {
+                    values.clear();
+                }
+            });
+        }
+
         /** The context in which the app is running */
         private final Context _context;
     }
@@ -240,20 +331,61 @@ public class BaseAndroidLibraryApplication extends Application implements Object
     }
 
     /**
-     * <p>Enables the HTTP response cache.</p>
+     * <p>Determines when the given startup phase runs. Override to move a phase off, or onto, the cold-start path;
+     * the phases that later phases depend on, such as {@link #PHASE_OBJECT_GRAPH}, must stay critical.</p>
+     *
+     * <p>By default the database warm-up and the HTTP cache run in the background, and the rest are critical.</p>
+     * @param phase the given phase, one of the {@code PHASE_} constants
+     * @return the priority of the phase
+     */
+    @Nonnull protected StartupPhases.Priority startupPriority(String phase) {
+        switch (phase) {
+            case PHASE_DATABASE_WARM_UP:
+            case PHASE_HTTP_CACHE:
+                return StartupPhases.Priority.BACKGROUND;
+            default:
+                return StartupPhases.Priority.CRITICAL;
+        }
+    }
+
+    /**
+     * <p>Called with the duration of each startup phase, and then with the total duration of the critical phases as
+     * {@link StartupPhases#CRITICAL_PATH}. Logs them at the debug level by default.</p>
+     * @param phase the name of the phase
+     * @param priority the priority with which it ran
+     * @param duration the duration of the phase, in nanoseconds
+     */
+    protected void onStartupPhaseFinished(String phase, StartupPhases.Priority priority, long duration) {
+        StartupPhases.log(phase, priority, duration);
+    }
+
+    /**
+     * <p>Enables the HTTP response cache. Runs as the {@link #PHASE_HTTP_CACHE} startup phase.</p>
      */
     protected void enableHttpResponseCache() {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    final File cache_directory = new File(getCacheDir(), "http");
-                    HttpResponseCache.install(cache_directory, _CACHE_SIZE);
-                } catch (IOException error) {
-                    AUTOTAGLOGE(error.getCause(), "HTTP cache installation failed.");
-                }
-            }
-        }).start();
+        try {
+            final File cache_directory = new File(getCacheDir(), "http");
+            HttpResponseCache.install(cache_directory, _CACHE_SIZE);
+        } catch (IOException error) {
+            AUTOTAGLOGE(error.getCause(), "HTTP cache installation failed.");
+        }
+    }
+
+    /**
+     * <p>Indicates that the databases should be {@linkplain #warmUpDatabases() warmed up} at start. Disabled by
+     * default.</p>
+     * @return {@code true} indicates that the databases should be warmed up
+     */
+    protected boolean shouldWarmUpDatabases() {
+        return false;
+    }
+
+    /**
+     * <p>{@linkplain BaseSqliteOpenHelper#warmUp() Warms up} the databases of the content providers, which are created
+     * before the application. Runs as the {@link #PHASE_DATABASE_WARM_UP} startup phase.</p>
+     */
+    protected void warmUpDatabases() {
+        BaseSqliteOpenHelper.warmUpAll();
     }
 
     /**
@@ -276,4 +408,6 @@ public class BaseAndroidLibraryApplication extends Application implements Object
     private static final long _MEBIBYTE = 1024 * 1024;
     /** Sets cache size to 10 MiB */
     private static final long _CACHE_SIZE = 10 * _MEBIBYTE;
+    /** Name of the file, in the app's files directory, in which cookies are stored */
+    private static final String _COOKIE_FILE = "cookies";
 }
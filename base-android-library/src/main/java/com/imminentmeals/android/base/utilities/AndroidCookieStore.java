@@ -3,11 +3,17 @@ package com.imminentmeals.android.base.utilities;
 import android.content.SharedPreferences;
 import android.os.PatternMatcher;
 
+import com.google.common.base.Objects;
+
 import java.net.CookieStore;
 import java.net.HttpCookie;
 import java.net.URI;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -18,11 +24,18 @@ import static com.imminentmeals.android.base.BaseAndroidLibraryApplication.COOKI
 import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGE;
 
 /**
- * A simple {@linkplain CookieStore cookie jar} that only cares to store the {@link #_COOKIE_AUTH_TOKEN}.
+ * A {@linkplain CookieStore cookie jar} that stores the {@link #_COOKIE_AUTH_TOKEN} on its own.
  * It persists the cookie through app launches and maintains it securely. Designed to allow null {@link URI}
  * in {@link #add(java.net.URI, java.net.HttpCookie)} to trigger one-time-use cookie setting, that restores
  * to the previous value after use. Utilized to support a connected account while also allowing other accounts
  * to make sync requests.
+ *
+ * <p>Every other cookie, for any host, is kept in a {@link PersistentCookieStore}.</p>
+ *
+ * <p>The deciphered cookie is cached in memory, so each request only reads a field. Writes go through the cache, and
+ * changes to the stored token from elsewhere invalidate it. The token is encrypted and deciphered outside of the
+ * store's lock, since either may wait for the key to be provisioned, so the lock is only ever held briefly and
+ * invalidation, which runs on the main thread, can take it.</p>
  * @author Dandré Allison
  */
 @Singleton
@@ -34,82 +47,176 @@ public class AndroidCookieStore implements CookieStore {
 /* Constructor */
     @Inject
     public AndroidCookieStore(SharedPreferences settings, CryptographyUtilities crypto,
-                              @Named(COOKIE_AUTH_TOKEN) String cookie_auth_token) {
+                              @Named(COOKIE_AUTH_TOKEN) String cookie_auth_token, PersistentCookieStore cookie_jar) {
         _settings = settings;
         _crypto = crypto;
+        _cookie_jar = cookie_jar;
         _COOKIE_AUTH_TOKEN = cookie_auth_token;
         _auth_token_pattern = new PatternMatcher(_COOKIE_AUTH_TOKEN, PatternMatcher.PATTERN_LITERAL);
+        _settings.registerOnSharedPreferenceChangeListener(_invalidator);
     }
 
 /* Cookie Store */
     @Override
     public void add(URI null_check, HttpCookie cookie) {
-        // Stores the cookie in shared preferences
-        if (_auth_token_pattern.match(cookie.getName())) {
-            final SharedPreferences.Editor editor = _settings.edit();
+        if (!_auth_token_pattern.match(cookie.getName())) {
+            _cookie_jar.add(null_check, cookie);
+            return;
+        }
+
+        final String auth_token;
+        try {
+            auth_token = _crypto.encrypt(cookie.getValue());
+        } catch (Exception error) {
+            AUTOTAGLOGE(error.getCause());
+            return;
+        }
+        // Stores the cookie in shared preferences, and writes it through to the cache
+        synchronized (this) {
             if (null_check == null)
-                _previous_auth_token = _settings.getString(_COOKIE_AUTH_TOKEN, null);
-            try {
-                editor.putString(KEY_AUTH_TOKEN, _crypto.encrypt(cookie.getValue())).apply();
-            } catch (Exception error) {
-                AUTOTAGLOGE(error.getCause());
-            }
+                _previous_auth_token = _settings.getString(KEY_AUTH_TOKEN, null);
+            _settings.edit().putString(KEY_AUTH_TOKEN, auth_token).apply();
+            cache(auth_token, Collections.singletonList(authTokenCookie(cookie.getValue())));
         }
     }
 
     @Override
     public List<HttpCookie> getCookies() {
-        return get(null);
+        return concat(authTokenCookies(), _cookie_jar.getCookies());
     }
 
     @Override
-    public List<HttpCookie> get(URI _) {
-        // Loads in cookies from shared preferences
-        final String auth_token = _settings.getString(KEY_AUTH_TOKEN, null);
-        if (auth_token != null)
-            try {
-                final HttpCookie cookie = new HttpCookie(_COOKIE_AUTH_TOKEN, _crypto.decipher(auth_token));
-                cookie.setPath("/");
-                cookie.setVersion(0);
-
-                // Reset to previous auth token if set
-                if (_previous_auth_token != null) {
-                    final SharedPreferences.Editor editor = _settings.edit();
-                    try {
-                        editor.putString(KEY_AUTH_TOKEN, _previous_auth_token).apply();
-                    } catch (Exception error) {
-                        AUTOTAGLOGE(error.getCause());
-                    }
-                    _previous_auth_token = null;
-                }
-                return newArrayList(cookie);
-            } catch (Exception error) {
-                AUTOTAGLOGE(error.getCause());
-            }
-        return newArrayList();
+    public List<HttpCookie> get(URI uri) {
+        return concat(authTokenCookies(), uri == null? _cookie_jar.getCookies() : _cookie_jar.get(uri));
     }
 
     @Override
     public List<URI> getURIs() {
-        return newArrayList();
+        return _cookie_jar.getURIs();
+    }
+
+    @Override
+    public boolean remove(URI uri, HttpCookie cookie) {
+        if (cookie == null || _auth_token_pattern.match(cookie.getName())) return removeAuthToken();
+        return _cookie_jar.remove(uri, cookie);
     }
 
     @Override
-    public boolean remove(URI _, HttpCookie __) {
+    public boolean removeAll() {
+        final boolean had_auth_token = removeAuthToken();
+        return _cookie_jar.removeAll() || had_auth_token;
+    }
+
+/* Private helper methods */
+    @Nonnull private List<HttpCookie> authTokenCookies() {
+        // Loads in cookies from shared preferences, once
+        final List<HttpCookie> loaded_cookies = _is_cached? null : load();
+        synchronized (this) {
+            final List<HttpCookie> cookies = loaded_cookies == null? _cookies : loaded_cookies;
+
+            // Reset to previous auth token if set
+            if (_previous_auth_token != null) {
+                final SharedPreferences.Editor editor = _settings.edit();
+                try {
+                    editor.putString(KEY_AUTH_TOKEN, _previous_auth_token).apply();
+                } catch (Exception error) {
+                    AUTOTAGLOGE(error.getCause());
+                }
+                _previous_auth_token = null;
+                invalidate();
+            }
+            return cookies;
+        }
+    }
+
+    private synchronized boolean removeAuthToken() {
         final boolean had_auth_token = _settings.getString(KEY_AUTH_TOKEN, null) != null;
         final SharedPreferences.Editor editor = _settings.edit();
         editor.remove(KEY_AUTH_TOKEN).apply();
+        cache(null, Collections.<HttpCookie>emptyList());
         return had_auth_token;
     }
 
-    @Override
-    public boolean removeAll() {
-        return remove(null,null);
+    @Nonnull private static List<HttpCookie> concat(List<HttpCookie> auth_token_cookies, List<HttpCookie> cookies) {
+        if (cookies.isEmpty()) return auth_token_cookies;
+        if (auth_token_cookies.isEmpty()) return cookies;
+        final List<HttpCookie> all = newArrayList(auth_token_cookies);
+        all.addAll(cookies);
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * <p>Deciphers the stored authentication token, without holding the store's lock, then caches it unless the
+     * token was written or invalidated meanwhile. Nothing is cached if it can't be deciphered, so it's tried again on
+     * the next request.</p>
+     * @return The cookies of the stored token, or {@code null} to use those cached meanwhile
+     */
+    @Nullable private List<HttpCookie> load() {
+        final int generation = _generation.get();
+        final String auth_token = _settings.getString(KEY_AUTH_TOKEN, null);
+        List<HttpCookie> cookies = Collections.emptyList();
+        boolean is_deciphered = true;
+        if (auth_token != null)
+            try {
+                cookies = Collections.singletonList(authTokenCookie(_crypto.decipher(auth_token)));
+            } catch (Exception error) {
+                AUTOTAGLOGE(error.getCause());
+                is_deciphered = false;
+            }
+        synchronized (this) {
+            if (generation != _generation.get()) return _is_cached? null : cookies;
+            if (is_deciphered) cache(auth_token, cookies);
+            return cookies;
+        }
+    }
+
+    /**
+     * <p>Caches the given cookies, as those of the given stored token. Must hold the store's lock.</p>
+     */
+    private void cache(@Nullable String auth_token, List<HttpCookie> cookies) {
+        // Keeps loads in progress from replacing these cookies with older ones
+        _generation.incrementAndGet();
+        _cached_auth_token = auth_token;
+        _cookies = cookies;
+        _is_cached = true;
     }
 
+    /**
+     * <p>Drops the cache, so the stored token is loaded again on the next request.</p>
+     */
+    private synchronized void invalidate() {
+        _generation.incrementAndGet();
+        _is_cached = false;
+    }
+
+    @Nonnull private HttpCookie authTokenCookie(String value) {
+        final HttpCookie cookie = new HttpCookie(_COOKIE_AUTH_TOKEN, value);
+        cookie.setPath("/");
+        cookie.setVersion(0);
+        return cookie;
+    }
+
+    /** Drops the cache when the stored authentication token is changed by anything but this cookie store */
+    private final SharedPreferences.OnSharedPreferenceChangeListener _invalidator =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences settings, String key) {
+                    if (!KEY_AUTH_TOKEN.equals(key)) return;
+                    if (!Objects.equal(settings.getString(KEY_AUTH_TOKEN, null), _cached_auth_token)) invalidate();
+                }
+            };
     private String _previous_auth_token;
     private final String _COOKIE_AUTH_TOKEN;
     private final PatternMatcher _auth_token_pattern;
     private final SharedPreferences _settings;
     private final CryptographyUtilities _crypto;
+    /** Every cookie but the authentication token */
+    private final PersistentCookieStore _cookie_jar;
+    /** The stored authentication token, as of the cached cookies */
+    private volatile String _cached_auth_token;
+    /** The deciphered cookies, while {@link #_is_cached} */
+    private List<HttpCookie> _cookies = Collections.emptyList();
+    private volatile boolean _is_cached;
+    /** Changed by every write to, and invalidation of, the cache */
+    private final AtomicInteger _generation = new AtomicInteger();
 }
@@ -0,0 +1,322 @@
+package com.imminentmeals.android.base.utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * <p>Table-driven hexadecimal and Base64 codecs. The encode and decode methods read from, and write into, buffers
+ * supplied by the caller and allocate nothing, so they can run over large or many inputs without producing garbage;
+ * the {@code to}/{@code from} conveniences allocate only their result.</p>
+ *
+ * <p>Base64 uses the standard alphabet with padding and no line breaks; decoding ignores whitespace, so it also reads
+ * {@link android.util.Base64#DEFAULT} output.</p>
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public final class Codecs {
+    /** Encodes hexadecimal with the digits {@code A-F} */
+    public static final boolean UPPER_CASE = true;
+    /** Encodes hexadecimal with the digits {@code a-f} */
+    public static final boolean LOWER_CASE = false;
+
+/* Hexadecimal */
+    /**
+     * <p>Encodes bytes into hexadecimal.</p>
+     * @param bytes The bytes to encode
+     * @param offset The offset of the first byte
+     * @param length The number of bytes
+     * @param hex The buffer into which to encode, which must have room for {@code 2 * length} characters
+     * @param hex_offset The offset in the buffer at which to start
+     * @param upper_case Either {@link #UPPER_CASE} or {@link #LOWER_CASE}
+     * @return The number of characters written
+     */
+    @Nonnegative public static int encodeHex(byte[] bytes, @Nonnegative int offset, @Nonnegative int length, char[] hex,
+                                             @Nonnegative int hex_offset, boolean upper_case) {
+        final char[] digits = upper_case? _HEX_UPPER_CASE : _HEX_LOWER_CASE;
+        for (int i = offset, j = hex_offset; i < offset + length; i++) {
+            final int value = bytes[i] & 0xFF;
+            hex[j++] = digits[value >>> 4];
+            hex[j++] = digits[value & 0x0F];
+        }
+        return 2 * length;
+    }
+
+    /**
+     * <p>Encodes the remaining bytes of the source into hexadecimal, advancing both buffers.</p>
+     * @param bytes The bytes to encode
+     * @param hex The buffer into which to encode
+     * @param upper_case Either {@link #UPPER_CASE} or {@link #LOWER_CASE}
+     * @throws java.nio.BufferOverflowException Indicates the hexadecimal buffer is too small
+     */
+    public static void encodeHex(ByteBuffer bytes, CharBuffer hex, boolean upper_case) {
+        final char[] digits = upper_case? _HEX_UPPER_CASE : _HEX_LOWER_CASE;
+        while (bytes.hasRemaining()) {
+            final int value = bytes.get() & 0xFF;
+            hex.put(digits[value >>> 4]).put(digits[value & 0x0F]);
+        }
+    }
+
+    /**
+     * <p>Decodes hexadecimal, of either case, into bytes.</p>
+     * @param hex The hexadecimal to decode
+     * @param offset The offset of the first character
+     * @param length The number of characters, which must be even
+     * @param bytes The buffer into which to decode, which must have room for {@code length / 2} bytes
+     * @param bytes_offset The offset in the buffer at which to start
+     * @return The number of bytes written
+     * @throws IllegalArgumentException Indicates the characters aren't hexadecimal
+     */
+    @Nonnegative public static int decodeHex(CharSequence hex, @Nonnegative int offset, @Nonnegative int length,
+                                             byte[] bytes, @Nonnegative int bytes_offset) {
+        if (length % 2 != 0) throw new IllegalArgumentException("Odd number of hexadecimal characters");
+        for (int i = offset, j = bytes_offset; i < offset + length; i += 2)
+            bytes[j++] = (byte) (hexValue(hex.charAt(i)) << 4 | hexValue(hex.charAt(i + 1)));
+        return length / 2;
+    }
+
+    /**
+     * <p>Decodes the remaining hexadecimal of the source, of either case, into bytes, advancing both buffers.</p>
+     * @param hex The hexadecimal to decode
+     * @param bytes The buffer into which to decode
+     * @throws IllegalArgumentException Indicates the characters aren't hexadecimal
+     * @throws java.nio.BufferOverflowException Indicates the byte buffer is too small
+     */
+    public static void decodeHex(CharBuffer hex, ByteBuffer bytes) {
+        if (hex.remaining() % 2 != 0) throw new IllegalArgumentException("Odd number of hexadecimal characters");
+        while (hex.hasRemaining())
+            bytes.put((byte) (hexValue(hex.get()) << 4 | hexValue(hex.get())));
+    }
+
+    /**
+     * <p>Encodes the bytes into a hexadecimal String.</p>
+     * @param bytes The bytes to encode
+     * @param upper_case Either {@link #UPPER_CASE} or {@link #LOWER_CASE}
+     * @return The hexadecimal String
+     */
+    @Nonnull public static String toHex(byte[] bytes, boolean upper_case) {
+        final char[] hex = new char[2 * bytes.length];
+        encodeHex(bytes, 0, bytes.length, hex, 0, upper_case);
+        return new String(hex);
+    }
+
+    /**
+     * <p>Decodes part of a hexadecimal String, of either case, into bytes.</p>
+     * @param hex The hexadecimal to decode
+     * @param offset The offset of the first character
+     * @param length The number of characters, which must be even
+     * @return The decoded bytes
+     * @throws IllegalArgumentException Indicates the characters aren't hexadecimal
+     */
+    @Nonnull public static byte[] fromHex(CharSequence hex, @Nonnegative int offset, @Nonnegative int length) {
+        final byte[] bytes = new byte[length / 2];
+        decodeHex(hex, offset, length, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * <p>Decodes a hexadecimal String, of either case, into bytes.</p>
+     * @param hex The hexadecimal to decode
+     * @return The decoded bytes
+     * @throws IllegalArgumentException Indicates the characters aren't hexadecimal
+     */
+    @Nonnull public static byte[] fromHex(CharSequence hex) {
+        return fromHex(hex, 0, hex.length());
+    }
+
+/* Base64 */
+    /**
+     * <p>Computes the number of Base64 characters that encode the given number of bytes.</p>
+     * @param byte_count The given number of bytes
+     * @return The number of characters, including padding
+     */
+    @Nonnegative public static int base64Length(@Nonnegative int byte_count) {
+        return (byte_count + 2) / 3 * 4;
+    }
+
+    /**
+     * <p>Encodes bytes into Base64.</p>
+     * @param bytes The bytes to encode
+     * @param offset The offset of the first byte
+     * @param length The number of bytes
+     * @param base64 The buffer into which to encode, which must have room for {@link #base64Length(int)} characters
+     * @param base64_offset The offset in the buffer at which to start
+     * @return The number of characters written
+     */
+    @Nonnegative public static int encodeBase64(byte[] bytes, @Nonnegative int offset, @Nonnegative int length,
+                                                char[] base64, @Nonnegative int base64_offset) {
+        final int end = offset + length;
+        final int whole_end = offset + length / 3 * 3;
+        int i = offset;
+        int j = base64_offset;
+        while (i < whole_end) {
+            final int group = (bytes[i++] & 0xFF) << 16 | (bytes[i++] & 0xFF) << 8 | bytes[i++] & 0xFF;
+            base64[j++] = _BASE64[group >>> 18];
+            base64[j++] = _BASE64[group >>> 12 & 0x3F];
+            base64[j++] = _BASE64[group >>> 6 & 0x3F];
+            base64[j++] = _BASE64[group & 0x3F];
+        }
+        if (i < end) {
+            final boolean has_two = i + 1 < end;
+            final int group = (bytes[i] & 0xFF) << 16 | (has_two? (bytes[i + 1] & 0xFF) << 8 : 0);
+            base64[j++] = _BASE64[group >>> 18];
+            base64[j++] = _BASE64[group >>> 12 & 0x3F];
+            base64[j++] = has_two? _BASE64[group >>> 6 & 0x3F] : _PADDING;
+            base64[j++] = _PADDING;
+        }
+        return j - base64_offset;
+    }
+
+    /**
+     * <p>Encodes the remaining bytes of the source into Base64, advancing both buffers.</p>
+     * @param bytes The bytes to encode
+     * @param base64 The buffer into which to encode
+     * @throws java.nio.BufferOverflowException Indicates the Base64 buffer is too small
+     */
+    public static void encodeBase64(ByteBuffer bytes, CharBuffer base64) {
+        while (bytes.remaining() >= 3) {
+            final int group = (bytes.get() & 0xFF) << 16 | (bytes.get() & 0xFF) << 8 | bytes.get() & 0xFF;
+            base64.put(_BASE64[group >>> 18])
+                  .put(_BASE64[group >>> 12 & 0x3F])
+                  .put(_BASE64[group >>> 6 & 0x3F])
+                  .put(_BASE64[group & 0x3F]);
+        }
+        if (bytes.hasRemaining()) {
+            final boolean has_two = bytes.remaining() == 2;
+            final int group = (bytes.get() & 0xFF) << 16 | (has_two? (bytes.get() & 0xFF) << 8 : 0);
+            base64.put(_BASE64[group >>> 18])
+                  .put(_BASE64[group >>> 12 & 0x3F])
+                  .put(has_two? _BASE64[group >>> 6 & 0x3F] : _PADDING)
+                  .put(_PADDING);
+        }
+    }
+
+    /**
+     * <p>Decodes Base64 into bytes, ignoring whitespace and stopping at the padding.</p>
+     * @param base64 The Base64 to decode
+     * @param offset The offset of the first character
+     * @param length The number of characters
+     * @param bytes The buffer into which to decode, which must have room for {@code length * 3 / 4} bytes
+     * @param bytes_offset The offset in the buffer at which to start
+     * @return The number of bytes written
+     * @throws IllegalArgumentException Indicates the characters aren't Base64
+     */
+    @Nonnegative public static int decodeBase64(CharSequence base64, @Nonnegative int offset, @Nonnegative int length,
+                                                byte[] bytes, @Nonnegative int bytes_offset) {
+        int bits = 0;
+        int bit_count = 0;
+        int j = bytes_offset;
+        for (int i = offset; i < offset + length; i++) {
+            final char character = base64.charAt(i);
+            if (character == _PADDING) break;
+            if (character <= ' ') continue;
+
+            bits = bits << 6 | base64Value(character);
+            bit_count += 6;
+            if (bit_count >= 8) {
+                bit_count -= 8;
+                bytes[j++] = (byte) (bits >>> bit_count);
+                bits &= (1 << bit_count) - 1;
+            }
+        }
+        return j - bytes_offset;
+    }
+
+    /**
+     * <p>Decodes the remaining Base64 of the source into bytes, ignoring whitespace and stopping at the padding,
+     * advancing both buffers.</p>
+     * @param base64 The Base64 to decode
+     * @param bytes The buffer into which to decode
+     * @throws IllegalArgumentException Indicates the characters aren't Base64
+     * @throws java.nio.BufferOverflowException Indicates the byte buffer is too small
+     */
+    public static void decodeBase64(CharBuffer base64, ByteBuffer bytes) {
+        int bits = 0;
+        int bit_count = 0;
+        while (base64.hasRemaining()) {
+            final char character = base64.get();
+            if (character == _PADDING) {
+                // Consumes the rest of the padding
+                base64.position(base64.limit());
+                break;
+            }
+            if (character <= ' ') continue;
+
+            bits = bits << 6 | base64Value(character);
+            bit_count += 6;
+            if (bit_count >= 8) {
+                bit_count -= 8;
+                bytes.put((byte) (bits >>> bit_count));
+                bits &= (1 << bit_count) - 1;
+            }
+        }
+    }
+
+    /**
+     * <p>Encodes the bytes into a Base64 String.</p>
+     * @param bytes The bytes to encode
+     * @return The Base64 String
+     */
+    @Nonnull public static String toBase64(byte[] bytes) {
+        final char[] base64 = new char[base64Length(bytes.length)];
+        encodeBase64(bytes, 0, bytes.length, base64, 0);
+        return new String(base64);
+    }
+
+    /**
+     * <p>Decodes a Base64 String into bytes, ignoring whitespace.</p>
+     * @param base64 The Base64 to decode
+     * @return The decoded bytes
+     * @throws IllegalArgumentException Indicates the characters aren't Base64
+     */
+    @Nonnull public static byte[] fromBase64(CharSequence base64) {
+        final byte[] bytes = new byte[base64.length() * 3 / 4];
+        final int length = decodeBase64(base64, 0, base64.length(), bytes, 0);
+        return length == bytes.length? bytes : Arrays.copyOf(bytes, length);
+    }
+
+/* Private helper methods */
+    private static int hexValue(char character) {
+        final int value = character < _HEX_VALUES.length? _HEX_VALUES[character] : -1;
+        if (value < 0) throw new IllegalArgumentException("Not a hexadecimal character: " + character);
+        return value;
+    }
+
+    private static int base64Value(char character) {
+        final int value = character < _BASE64_VALUES.length? _BASE64_VALUES[character] : -1;
+        if (value < 0) throw new IllegalArgumentException("Not a Base64 character: " + character);
+        return value;
+    }
+
+    /**
+     * <p>Creates the table from ASCII characters to their values in the given alphabets, {@code -1} for the characters
+     * in none of them.</p>
+     */
+    @Nonnull private static byte[] values(char[]... alphabets) {
+        final byte[] values = new byte[_ASCII_SIZE];
+        Arrays.fill(values, (byte) -1);
+        for (char[] alphabet : alphabets)
+            for (int value = 0; value < alphabet.length; value++)
+                values[alphabet[value]] = (byte) value;
+        return values;
+    }
+
+/* Private Constructor */
+    /** Blocks instantiation of the {@link Codecs} class. */
+    private Codecs() { }
+
+    private static final int _ASCII_SIZE = 128;
+    private static final char[] _HEX_UPPER_CASE = "0123456789ABCDEF".toCharArray();
+    private static final char[] _HEX_LOWER_CASE = "0123456789abcdef".toCharArray();
+    /** Value of each ASCII hexadecimal digit, of either case */
+    private static final byte[] _HEX_VALUES = values(_HEX_UPPER_CASE, _HEX_LOWER_CASE);
+    private static final char[] _BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char _PADDING = '=';
+    /** Value of each ASCII Base64 digit */
+    private static final byte[] _BASE64_VALUES = values(_BASE64);
+}
@@ -1,11 +1,27 @@
 package com.imminentmeals.android.base.utilities;
 
+import android.content.SharedPreferences;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -13,14 +29,23 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import static android.util.Base64.DEFAULT;
+import static android.util.Base64.decode;
+import static android.util.Base64.encodeToString;
+import static com.google.common.collect.Lists.newArrayList;
+
 /**
  * <p>Collection of utilities to encrypt and decipher strings. A SEED value is used as a shared secret ("Master-Password").
  * Only with the same SEED can the stored values can be decrypted.</p>
@@ -31,6 +56,10 @@ import javax.inject.Singleton;
  * ...
  * String message = cryptography.decipher(masterpassword, digest)
  * </pre>
+ *
+ * <p>Messages are encrypted with AES-GCM into a versioned envelope: the version, a random IV, then the ciphertext and
+ * its authentication tag, so a tampered digest fails to decipher rather than deciphering to garbage. Digests from
+ * before the envelope, encrypted with the provider's default AES mode, still decipher.</p>
  * @author ferenc.hechler (http://www.androidsnippets.com/encryptdecrypt-strings)
  * @author Dandré Allison
  */
@@ -44,16 +73,27 @@ public class CryptographyUtilities {
                                                 + "CryptographyUtilities.SECRET_KEY";
     /** Name of the algorithm used */
     public static final String AES = "AES";
+    /** Name of the message authentication algorithm used */
+    public static final String HMAC_SHA256 = "HmacSHA256";
 
     /**
      * <p>Constructs the {@link CryptographyUtilities}.</p>
-     * @param secret_key The key used to encrypt and decipher messages
+     * @param secret_key The key used to encrypt and decipher messages, once it has been provisioned, see
+     *                   {@link #provisionKey(android.content.SharedPreferences)}
      */
     @Inject
-    public CryptographyUtilities(SecretKey secret_key) {
+    public CryptographyUtilities(Future<SecretKey> secret_key) {
         _SECRET_KEY = secret_key;
     }
 
+    /**
+     * <p>Constructs the {@link CryptographyUtilities}.</p>
+     * @param secret_key The key used to encrypt and decipher messages
+     */
+    public CryptographyUtilities(SecretKey secret_key) {
+        this(Futures.immediateFuture(secret_key));
+    }
+
     /**
      * <p>Encrypts the message, so that only with the current {@link SecretKey} can it be deciphered.</p>
      * @param message The message to encrypt
@@ -65,12 +105,12 @@ public class CryptographyUtilities {
      * @throws IllegalBlockSizeException Indicates the size of the resulting bytes is not a multiple of the cipher block
      *                                   size
      * @throws InvalidKeyException Indicates an invalid key ({@link #_SECRET_KEY}) was used
+     * @throws InvalidAlgorithmParameterException Indicates the provider rejected the IV
      */
     @Nonnull public String encrypt(String message)
             throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException,
-                   NoSuchPaddingException, UnsupportedEncodingException  {
-        final byte[] digest = encrypt(_SECRET_KEY.getEncoded(), message.getBytes(_CHARSET));
-        return toHex(digest);
+                   NoSuchPaddingException, UnsupportedEncodingException, InvalidAlgorithmParameterException {
+        return encrypt(keySpec(), message);
     }
 
     /**
@@ -80,18 +120,135 @@ public class CryptographyUtilities {
      * @return The deciphered message
      * @throws NoSuchPaddingException Indicates no installed provider can provide the padding scheme in the transformation
      * @throws NoSuchAlgorithmException Indicates an invalid encryption algorithm was requested
-     * @throws BadPaddingException Indicates the padding of the data doesn't match the padding scheme
+     * @throws BadPaddingException Indicates the padding of the data doesn't match the padding scheme, or the digest
+     *                             fails authentication
      * @throws IllegalBlockSizeException Indicates the size of the resulting bytes is not a multiple of the cipher block
-     *                                   size
+     *                                   size, or the digest is truncated
      * @throws InvalidKeyException Indicates an invalid key ({@link #_SECRET_KEY}) was used
      * @throws UnsupportedEncodingException Indicates the String encoding ({@link #_CHARSET}) not valid
+     * @throws InvalidAlgorithmParameterException Indicates the provider rejected the IV
      */
     @Nonnull public String decipher(String digest)
             throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException,
-                   NoSuchPaddingException, UnsupportedEncodingException {
-        final byte[] encrypted_message = toByte(digest);
-        final byte[] message = decipher(_SECRET_KEY.getEncoded(), encrypted_message);
-        return new String(message, _CHARSET);
+                   NoSuchPaddingException, UnsupportedEncodingException, InvalidAlgorithmParameterException {
+        return decipher(keySpec(), digest);
+    }
+
+    /**
+     * <p>Encrypts the messages, see {@link #encrypt(String)}. Above {@value #_PARALLEL_THRESHOLD} messages, the work
+     * is split across a shared pool with a thread per processor, the calling thread taking a share. Called from one of
+     * the pool's own threads, the calling thread does all the work.</p>
+     * @param messages The messages to encrypt
+     * @return The encrypted messages, in the same order
+     * @throws GeneralSecurityException Indicates the same failures as {@link #encrypt(String)}
+     * @throws UnsupportedEncodingException Indicates the String encoding ({@link #_CHARSET}) not valid
+     * @throws InterruptedException Indicates the calling thread was interrupted while waiting, the remaining work is
+     *         cancelled
+     */
+    @Nonnull public List<String> encryptAll(List<String> messages)
+            throws GeneralSecurityException, UnsupportedEncodingException, InterruptedException {
+        return transformAll(messages, true);
+    }
+
+    /**
+     * <p>Deciphers the digests, see {@link #decipher(String)}. Above {@value #_PARALLEL_THRESHOLD} digests, the work
+     * is split across a shared pool with a thread per processor, the calling thread taking a share. Called from one of
+     * the pool's own threads, the calling thread does all the work.</p>
+     * @param digests The digests to decipher
+     * @return The deciphered messages, in the same order
+     * @throws GeneralSecurityException Indicates the same failures as {@link #decipher(String)}
+     * @throws UnsupportedEncodingException Indicates the String encoding ({@link #_CHARSET}) not valid
+     * @throws InterruptedException Indicates the calling thread was interrupted while waiting, the remaining work is
+     *         cancelled
+     */
+    @Nonnull public List<String> decipherAll(List<String> digests)
+            throws GeneralSecurityException, UnsupportedEncodingException, InterruptedException {
+        return transformAll(digests, false);
+    }
+
+    /**
+     * <p>Encrypts the clear stream into the digest stream, so that only with the current {@link SecretKey} can it be
+     * deciphered. Neither stream is closed.</p>
+     *
+     * <p>The stream is encrypted in segments of {@value #_SEGMENT_SIZE} bytes, each with its own authentication tag,
+     * so only a couple of segments are ever held in memory. The digest starts with the version and a random salt,
+     * from which a key for this stream alone is derived. Each segment's IV holds its position and whether it's the
+     * last, so segments can't be reordered, dropped, or cut off at the end without failing authentication.</p>
+     * @param clear The stream to encrypt
+     * @param digest The stream to which to write the encrypted segments
+     * @throws IOException Indicates either stream failed
+     * @throws NoSuchPaddingException Indicates no installed provider can provide the padding scheme in the transformation
+     * @throws NoSuchAlgorithmException Indicates an invalid encryption algorithm was requested
+     * @throws BadPaddingException Indicates the padding of the data doesn't match the padding scheme
+     * @throws IllegalBlockSizeException Indicates the size of the resulting bytes is not a multiple of the cipher block
+     *                                   size
+     * @throws InvalidKeyException Indicates an invalid key ({@link #_SECRET_KEY}) was used
+     * @throws InvalidAlgorithmParameterException Indicates the provider rejected the IV
+     */
+    public void encrypt(InputStream clear, OutputStream digest)
+            throws IOException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+                   NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException {
+        final byte[] salt = new byte[_SALT_LENGTH];
+        _RANDOM.nextBytes(salt);
+        final SecretKeySpec stream_key = streamKey(salt);
+        digest.write(_STREAM_VERSION_SEGMENTED_GCM);
+        digest.write(salt);
+        transformSegments(Cipher.ENCRYPT_MODE, stream_key, _SEGMENT_SIZE, clear, digest);
+    }
+
+    /**
+     * <p>Deciphers the digest stream, written by {@link #encrypt(java.io.InputStream, java.io.OutputStream)}, into the
+     * clear stream using the current {@link SecretKey}. Neither stream is closed.</p>
+     *
+     * <p>The digest is read a segment at a time, and each segment is written only once it has been authenticated.
+     * If the digest fails authentication part way, the segments before have already been written, so the clear
+     * stream should be discarded.</p>
+     * @param digest The stream of the encrypted segments
+     * @param clear The stream to which to write the deciphered bytes
+     * @throws IOException Indicates either stream failed, or the digest is truncated within its header
+     * @throws NoSuchPaddingException Indicates no installed provider can provide the padding scheme in the transformation
+     * @throws NoSuchAlgorithmException Indicates an invalid encryption algorithm was requested, or the digest's
+     *                                  version is unknown
+     * @throws BadPaddingException Indicates the digest fails authentication, or is cut off at a segment's end
+     * @throws IllegalBlockSizeException Indicates the digest is cut off within a segment's tag
+     * @throws InvalidKeyException Indicates an invalid key ({@link #_SECRET_KEY}) was used
+     * @throws InvalidAlgorithmParameterException Indicates the provider rejected the IV
+     */
+    public void decipher(InputStream digest, OutputStream clear)
+            throws IOException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+                   NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException {
+        final int version = digest.read();
+        if (version != _STREAM_VERSION_SEGMENTED_GCM)
+            throw new NoSuchAlgorithmException("Unknown stream version: " + version);
+        final byte[] salt = new byte[_SALT_LENGTH];
+        ByteStreams.readFully(digest, salt);
+        transformSegments(Cipher.DECRYPT_MODE, streamKey(salt), _SEGMENT_SIZE + _TAG_LENGTH / Byte.SIZE, digest,
+                clear);
+    }
+
+    /**
+     * <p>Provisions the {@link SecretKey} on a background thread: reads it from the given
+     * {@link android.content.SharedPreferences}, or, on initial launch, generates and stores it. Encryption waits for
+     * the key only when it's needed before it's ready.</p>
+     * @param settings The preferences that store the key under {@link #KEY_SECRET_KEY}
+     * @return The key, once it has been provisioned
+     */
+    @Nonnull public static Future<SecretKey> provisionKey(final SharedPreferences settings) {
+        final FutureTask<SecretKey> provisioning = new FutureTask<>(new Callable<SecretKey>() {
+            @Override
+            public SecretKey call() throws NoSuchAlgorithmException {
+                final String stored_key = settings.getString(KEY_SECRET_KEY, null);
+                if (stored_key != null) return new SecretKeySpec(decode(stored_key, DEFAULT), AES);
+
+                final SecretKey secret_key = generateKey();
+                settings.edit()
+                        .putString(KEY_SECRET_KEY, encodeToString(secret_key.getEncoded(), DEFAULT))
+                        .apply();
+                return secret_key;
+            }
+        });
+        new Thread(provisioning, "Secret key provisioning").start();
+        return provisioning;
     }
 
     /**
@@ -106,77 +263,415 @@ public class CryptographyUtilities {
     }
 
     /**
-     * <p>Generates a {@link SecretKey} to be used to encrypt/decipher messages.</p>
+     * <p>Generates a {@link SecretKey} to be used to encrypt/decipher messages, with
+     * {@value KeyDerivation#DEFAULT_ITERATIONS} iterations.</p>
      * @param passphrase The passphrase used to generate the secret key
      * @param salt The salt added to obscure the secret key
      * @return A secret key
      * @throws NoSuchAlgorithmException Indicates an invalid encryption algorithm was requested
      * @throws InvalidKeySpecException Indicates an invalid key specification was requested
+     * @see #generateKey(char[], KeyDerivation)
      */
     @Nonnull public static SecretKey generateKey(char[] passphrase, byte[] salt)
             throws NoSuchAlgorithmException, InvalidKeySpecException {
-        // Number of PBKDF2 hardening rounds to use. Larger values increase
-        // computation time. You should select a value that causes computation
-        // to take >100ms.
-        final int iterations = 1000;
+        return generateKey(passphrase, new KeyDerivation(salt, KeyDerivation.DEFAULT_ITERATIONS));
+    }
+
+    /**
+     * <p>Generates a {@link SecretKey} to be used to encrypt/decipher messages, with the salt and number of iterations
+     * of the given derivation. Takes as long as the derivation was calibrated for, see
+     * {@link KeyDerivation#calibrate(long)} and {@link KeyDerivation#deriveKey(char[])}.</p>
+     * @param passphrase The passphrase used to generate the secret key
+     * @param derivation The given derivation
+     * @return A secret key
+     * @throws NoSuchAlgorithmException Indicates an invalid encryption algorithm was requested
+     * @throws InvalidKeySpecException Indicates an invalid key specification was requested
+     */
+    @Nonnull public static SecretKey generateKey(char[] passphrase, KeyDerivation derivation)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        final SecretKeyFactory key_factory = SecretKeyFactory.getInstance(_PBKDF2);
+        final PBEKeySpec key_spec = new PBEKeySpec(passphrase, derivation.salt(), derivation.iterations(),
+                _KEY_LENGTH);
+        try {
+            return key_factory.generateSecret(key_spec);
+        } finally {
+            key_spec.clearPassword();
+        }
+    }
+
+    /**
+     * <p>Computes the blind index of the given value of the given column: a keyed hash that's the same for equal
+     * values, so encrypted values can be matched in SQL without deciphering them. The column is part of the hash, so
+     * equal values in different columns can't be linked.</p>
+     * @param column The given column
+     * @param value The given value
+     * @return The blind index, in hexadecimal
+     * @throws InvalidKeyException Indicates an invalid key ({@link #_SECRET_KEY}) was used
+     * @throws NoSuchAlgorithmException Indicates HMAC-SHA256 isn't available
+     * @throws UnsupportedEncodingException Indicates the String encoding ({@link #_CHARSET}) not valid
+     */
+    @Nonnull public String blindIndex(String column, String value)
+            throws InvalidKeyException, NoSuchAlgorithmException, UnsupportedEncodingException {
+        SecretKeySpec blind_index_key = _blind_index_key;
+        if (blind_index_key == null)
+            _blind_index_key = blind_index_key = deriveKey(_PURPOSE_BLIND_INDEX, HMAC_SHA256);
+        final Mac mac = mac();
+        mac.init(blind_index_key);
+        mac.update(column.getBytes(_CHARSET));
+        // Separates the column from the value
+        mac.update((byte) 0);
+        final byte[] hash = mac.doFinal(value.getBytes(_CHARSET));
+        final char[] blind_index = new char[2 * _BLIND_INDEX_LENGTH];
+        Codecs.encodeHex(hash, 0, _BLIND_INDEX_LENGTH, blind_index, 0, Codecs.LOWER_CASE);
+        return new String(blind_index);
+    }
 
-        final SecretKeyFactory key_factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-        final KeySpec key_spec = new PBEKeySpec(passphrase, salt, iterations, _KEY_LENGTH);
-        return key_factory.generateSecret(key_spec);
+    /**
+     * <p>Derives a key for the given purpose from the {@link SecretKey}, so that each use of the key material, in
+     * this package, gets a key of its own.</p>
+     * @param purpose The given purpose, a label unique to the use
+     * @param algorithm The algorithm with which the derived key is used
+     * @return The derived key
+     * @throws InvalidKeyException Indicates an invalid key ({@link #_SECRET_KEY}) was used
+     * @throws NoSuchAlgorithmException Indicates HMAC-SHA256 isn't available
+     * @throws UnsupportedEncodingException Indicates the String encoding ({@link #_CHARSET}) not valid
+     */
+    @Nonnull SecretKeySpec deriveKey(String purpose, String algorithm)
+            throws InvalidKeyException, NoSuchAlgorithmException, UnsupportedEncodingException {
+        final Mac mac = mac();
+        mac.init(new SecretKeySpec(keySpec().getEncoded(), HMAC_SHA256));
+        return new SecretKeySpec(mac.doFinal(purpose.getBytes(_CHARSET)), algorithm);
     }
 
 /* Helpers */
-    @Nonnull private static byte[] encrypt(byte[] raw, byte[] clear)
+    /**
+     * <p>Retrieves the key material of the {@link SecretKey}, decoded once and cached, waiting for the key to be
+     * provisioned if needed.</p>
+     * @return The key material
+     * @throws InvalidKeyException Indicates the key couldn't be provisioned, or the wait was interrupted
+     */
+    @Nonnull private SecretKeySpec keySpec() throws InvalidKeyException {
+        SecretKeySpec key_spec = _key_spec;
+        if (key_spec == null)
+            _key_spec = key_spec = new SecretKeySpec(secretKey().getEncoded(), AES);
+        return key_spec;
+    }
+
+    /**
+     * <p>Waits for the {@link SecretKey} to be provisioned.</p>
+     * @return The secret key
+     * @throws InvalidKeyException Indicates the key couldn't be provisioned, or the wait was interrupted
+     */
+    @Nonnull private SecretKey secretKey() throws InvalidKeyException {
+        try {
+            return _SECRET_KEY.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new InvalidKeyException("Interrupted while waiting for the secret key", error);
+        } catch (ExecutionException error) {
+            throw new InvalidKeyException("Unable to provision the secret key", error.getCause());
+        }
+    }
+
+    @Nonnull private static String encrypt(SecretKeySpec private_key_spec, String message)
+            throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException,
+                   NoSuchPaddingException, UnsupportedEncodingException, InvalidAlgorithmParameterException {
+        final byte[] envelope = seal(private_key_spec, message.getBytes(_CHARSET));
+        return _ENVELOPE_MARKER + toHex(envelope);
+    }
+
+    @Nonnull private static String decipher(SecretKeySpec private_key_spec, String digest)
+            throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException,
+                   NoSuchPaddingException, UnsupportedEncodingException, InvalidAlgorithmParameterException {
+        final byte[] message = digest.startsWith(_ENVELOPE_MARKER)
+                ? open(private_key_spec, Codecs.fromHex(digest, _ENVELOPE_MARKER.length(),
+                                                        digest.length() - _ENVELOPE_MARKER.length()))
+                : decipher(private_key_spec, toByte(digest));
+        return new String(message, _CHARSET);
+    }
+
+    /**
+     * <p>Encrypts, or deciphers, all the inputs, in parallel partitions when there are enough of them. Either all the
+     * outputs are returned, or an exception is thrown; an interrupted partition throws an
+     * {@link InterruptedException} rather than stopping short.</p>
+     */
+    @Nonnull private List<String> transformAll(List<String> inputs, final boolean is_encrypting)
+            throws GeneralSecurityException, UnsupportedEncodingException, InterruptedException {
+        final SecretKeySpec key_spec = keySpec();
+        final String[] input_array = inputs.toArray(new String[inputs.size()]);
+        final String[] outputs = new String[input_array.length];
+        // A pool thread waiting on the pool could take the last thread its partitions need
+        final int partition_count = input_array.length < _PARALLEL_THRESHOLD || _WORKERS.isWorkerThread()
+                ? 1 : _WORKER_COUNT;
+        final List<FutureTask<Void>> partitions = newArrayList();
+        for (int i = 0; i < partition_count; i++) {
+            final int start = input_array.length * i / partition_count;
+            final int end = input_array.length * (i + 1) / partition_count;
+            partitions.add(new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call()
+                        throws GeneralSecurityException, UnsupportedEncodingException, InterruptedException {
+                    for (int j = start; j < end; j++) {
+                        // Fails rather than leaving the rest of the partition out of the outputs
+                        if (Thread.interrupted()) throw new InterruptedException();
+                        outputs[j] = is_encrypting
+                                ? encrypt(key_spec, input_array[j])
+                                : decipher(key_spec, input_array[j]);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        for (int i = 1; i < partition_count; i++)
+            _WORKERS.execute(partitions.get(i));
+        partitions.get(0).run();
+
+        try {
+            for (FutureTask<Void> partition : partitions)
+                partition.get();
+            return Arrays.asList(outputs);
+        } catch (ExecutionException error) {
+            for (FutureTask<Void> partition : partitions)
+                partition.cancel(true);
+            final Throwable cause = error.getCause();
+            // The calling thread's own partition was interrupted
+            if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+            if (cause instanceof GeneralSecurityException) throw (GeneralSecurityException) cause;
+            if (cause instanceof UnsupportedEncodingException) throw (UnsupportedEncodingException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException error) {
+            for (FutureTask<Void> partition : partitions)
+                partition.cancel(true);
+            throw error;
+        }
+    }
+
+    /**
+     * <p>Encrypts the clear bytes into an envelope: the version, a fresh random IV, then the AES-GCM ciphertext and
+     * its authentication tag.</p>
+     */
+    @Nonnull static byte[] seal(SecretKeySpec private_key_spec, byte[] clear)
+            throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException, NoSuchAlgorithmException,
+                   NoSuchPaddingException, InvalidAlgorithmParameterException {
+        final byte[] iv = new byte[_IV_LENGTH];
+        _RANDOM.nextBytes(iv);
+        final Cipher cipher = cipher(_GCM_CIPHER, _GCM);
+        cipher.init(Cipher.ENCRYPT_MODE, private_key_spec, gcmParameters(iv));
+        final byte[] envelope = new byte[_ENVELOPE_HEADER_LENGTH + cipher.getOutputSize(clear.length)];
+        envelope[0] = _ENVELOPE_VERSION_GCM;
+        System.arraycopy(iv, 0, envelope, 1, _IV_LENGTH);
+        try {
+            final int length = cipher.doFinal(clear, 0, clear.length, envelope, _ENVELOPE_HEADER_LENGTH);
+            return length == envelope.length - _ENVELOPE_HEADER_LENGTH
+                    ? envelope : Arrays.copyOf(envelope, _ENVELOPE_HEADER_LENGTH + length);
+        } catch (ShortBufferException error) {
+            // Sized with getOutputSize
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * <p>Authenticates and deciphers an envelope written by {@link #seal(SecretKeySpec, byte[])}.</p>
+     */
+    @Nonnull static byte[] open(SecretKeySpec private_key_spec, byte[] envelope)
             throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException, NoSuchAlgorithmException,
-                   NoSuchPaddingException {
-        final SecretKeySpec private_key_spec = new SecretKeySpec(raw, AES);
-        final Cipher cipher = Cipher.getInstance(AES);
-        cipher.init(Cipher.ENCRYPT_MODE, private_key_spec);
-        return cipher.doFinal(clear);
+                   NoSuchPaddingException, InvalidAlgorithmParameterException {
+        if (envelope.length < _ENVELOPE_HEADER_LENGTH)
+            throw new IllegalBlockSizeException("Truncated envelope");
+        if (envelope[0] != _ENVELOPE_VERSION_GCM)
+            throw new NoSuchAlgorithmException("Unknown envelope version: " + envelope[0]);
+        final Cipher cipher = cipher(_GCM_CIPHER, _GCM);
+        cipher.init(Cipher.DECRYPT_MODE, private_key_spec,
+                gcmParameters(Arrays.copyOfRange(envelope, 1, _ENVELOPE_HEADER_LENGTH)));
+        return cipher.doFinal(envelope, _ENVELOPE_HEADER_LENGTH, envelope.length - _ENVELOPE_HEADER_LENGTH);
     }
 
-    @Nonnull private static byte[] decipher(byte[] raw, byte[] digest)
+    /**
+     * <p>Deciphers a digest from before the envelope, encrypted with the provider's default AES mode.</p>
+     */
+    @Nonnull private static byte[] decipher(SecretKeySpec private_key_spec, byte[] digest)
             throws IllegalBlockSizeException, BadPaddingException, InvalidKeyException, NoSuchAlgorithmException,
             NoSuchPaddingException {
-        final SecretKeySpec private_key_spec = new SecretKeySpec(raw, AES);
-        final Cipher cipher = Cipher.getInstance(AES);
+        final Cipher cipher = cipher(_CIPHER, AES);
         cipher.init(Cipher.DECRYPT_MODE, private_key_spec);
         return cipher.doFinal(digest);
     }
 
-    @Nonnull private static byte[] toByte(String hex_string) {
-        final int length = hex_string.length()/2;
-        final byte[] result = new byte[length];
-        for (int i = 0; i < length; i++)
-            result[i] = Integer.valueOf(hex_string.substring(2 * i, 2 * i + 2), _BASE_16).byteValue();
-        return result;
+    /**
+     * <p>Derives the key of a stream from the {@link SecretKey} and the stream's salt.</p>
+     */
+    @Nonnull private SecretKeySpec streamKey(byte[] salt)
+            throws InvalidKeyException, NoSuchAlgorithmException, UnsupportedEncodingException {
+        final Mac mac = mac();
+        mac.init(new SecretKeySpec(keySpec().getEncoded(), HMAC_SHA256));
+        mac.update(_PURPOSE_STREAM.getBytes(_CHARSET));
+        // Separates the purpose from the salt
+        mac.update((byte) 0);
+        return new SecretKeySpec(mac.doFinal(salt), AES);
+    }
+
+    /**
+     * <p>Encrypts, or deciphers, the input into the output a segment at a time, see
+     * {@link #encrypt(java.io.InputStream, java.io.OutputStream)}. A segment is known to be the last when nothing
+     * follows it, so the next segment is read before the current one is transformed.</p>
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @param stream_key The key of the stream
+     * @param segment_size The size of the full segments of the input
+     */
+    private static void transformSegments(int mode, SecretKeySpec stream_key, int segment_size, InputStream input,
+                                          OutputStream output)
+            throws IOException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+                   NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException {
+        final Cipher cipher = cipher(_GCM_CIPHER, _GCM);
+        byte[] segment = new byte[segment_size];
+        byte[] next_segment = new byte[segment_size];
+        final byte[] transformed = new byte[_SEGMENT_SIZE + _TAG_LENGTH / Byte.SIZE];
+        int length = ByteStreams.read(input, segment, 0, segment_size);
+        for (int index = 0; ; index++) {
+            final int next_length = length < segment_size? 0 : ByteStreams.read(input, next_segment, 0, segment_size);
+            final boolean is_last = next_length == 0;
+            if (mode == Cipher.DECRYPT_MODE && length < _TAG_LENGTH / Byte.SIZE)
+                throw new IllegalBlockSizeException("Truncated segment");
+            cipher.init(mode, stream_key, gcmParameters(segmentIv(index, is_last)));
+            try {
+                output.write(transformed, 0, cipher.doFinal(segment, 0, length, transformed, 0));
+            } catch (ShortBufferException error) {
+                // Sized for a full segment and its tag
+                throw new IllegalStateException(error);
+            }
+            if (is_last) return;
+
+            final byte[] transformed_segment = segment;
+            segment = next_segment;
+            next_segment = transformed_segment;
+            length = next_length;
+        }
+    }
+
+    /**
+     * <p>Creates the IV of the segment at the given index of a stream: zeros, the index, then whether it's the last
+     * segment. The stream's key is used for a single stream, so the IVs are never repeated under a key.</p>
+     */
+    @Nonnull private static byte[] segmentIv(int index, boolean is_last) {
+        final byte[] iv = new byte[_IV_LENGTH];
+        iv[_IV_LENGTH - 5] = (byte) (index >>> 24);
+        iv[_IV_LENGTH - 4] = (byte) (index >>> 16);
+        iv[_IV_LENGTH - 3] = (byte) (index >>> 8);
+        iv[_IV_LENGTH - 2] = (byte) index;
+        iv[_IV_LENGTH - 1] = (byte) (is_last? 1 : 0);
+        return iv;
     }
 
-    @Nonnull private static String toHex(byte[] buffer) {
-        final StringBuilder result = new StringBuilder(2 * buffer.length);
-        for (byte b : buffer)
-            appendHex(result, b);
+    /**
+     * <p>Creates the parameters of AES-GCM for the given IV. {@link GCMParameterSpec} is only available from API 19,
+     * before which the provider takes the IV alone and uses a full length tag.</p>
+     * @param iv The given IV
+     * @return The parameters
+     */
+    @Nonnull private static AlgorithmParameterSpec gcmParameters(byte[] iv) {
+        return _HAS_GCM_PARAMETER_SPEC? new GCMParameterSpec(_TAG_LENGTH, iv) : new IvParameterSpec(iv);
+    }
+
+    /**
+     * <p>Retrieves the calling thread's {@link Cipher} for the given transformation, which is re-initialized for each
+     * use, since looking up a cipher from the providers costs far more than initializing it.</p>
+     * @param ciphers Each thread's cipher for the transformation
+     * @param transformation The given transformation
+     * @return The calling thread's cipher
+     * @throws NoSuchPaddingException Indicates no installed provider can provide the padding scheme in the transformation
+     * @throws NoSuchAlgorithmException Indicates an invalid encryption algorithm was requested
+     */
+    @Nonnull private static Cipher cipher(ThreadLocal<Cipher> ciphers, String transformation)
+            throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = ciphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * <p>Retrieves the calling thread's HMAC-SHA256 {@link Mac}, which is re-initialized for each use.</p>
+     * @return The calling thread's MAC
+     * @throws NoSuchAlgorithmException Indicates HMAC-SHA256 isn't available
+     */
+    @Nonnull private static Mac mac() throws NoSuchAlgorithmException {
+        Mac mac = _MAC.get();
+        if (mac == null) {
+            mac = Mac.getInstance(HMAC_SHA256);
+            _MAC.set(mac);
+        }
+        return mac;
+    }
+
+    private static boolean hasGcmParameterSpec() {
+        try {
+            Class.forName("javax.crypto.spec.GCMParameterSpec");
+            return true;
+        } catch (ClassNotFoundException _) {
+            return false;
+        }
+    }
 
-        return result.toString();
+    @Nonnull static byte[] toByte(String hex_string) {
+        return Codecs.fromHex(hex_string);
     }
 
-    private static void appendHex(StringBuilder string_builder, byte b) {
-        string_builder.append(_HEX.charAt((b >> _APPEND_HEX_OFFSET) & _HEX_BIT_MASK))
-                      .append(_HEX.charAt(b & _HEX_BIT_MASK));
+    @Nonnull static String toHex(byte[] buffer) {
+        return Codecs.toHex(buffer, Codecs.UPPER_CASE);
     }
 
-    /** Hexadecimal characters, used to bytes into hexadecimal */
-    private static final String _HEX = "0123456789ABCDEF";
+    /** Number of messages above which they're encrypted, or deciphered, in parallel */
+    private static final int _PARALLEL_THRESHOLD = 256;
+    private static final int _WORKER_COUNT = Runtime.getRuntime().availableProcessors();
+    /** Encrypts and deciphers the partitions of all bulk calls, a thread per processor */
+    private static final WorkerPool _WORKERS = new WorkerPool(_WORKER_COUNT);
+    /** Password-based key derivation function */
+    private static final String _PBKDF2 = "PBKDF2WithHmacSHA1";
     /** Defines the length of generated {@link SecretKey}s */
     private static final int _KEY_LENGTH = 256;
     /** Defines the character set encoding */
     private static final String _CHARSET = "UTF-8";
-    /** Bit shift used in {@link #appendHex(StringBuilder, byte)} */
-    private static final int _APPEND_HEX_OFFSET = 4;
-    /** Bit mask used in {@link #appendHex(StringBuilder, byte)} */
-    private static final int _HEX_BIT_MASK = 0x0f;
-    /** Hexadecimal number radix */
-    private static final int _BASE_16 = 16;
-    /** The {@link SecretKey} */
-    private final SecretKey _SECRET_KEY;
+    /** Authenticated transformation used to encrypt */
+    private static final String _GCM = "AES/GCM/NoPadding";
+    /** Prefix of digests that hold an envelope, outside of the hexadecimal characters of older digests */
+    private static final String _ENVELOPE_MARKER = "v";
+    /** Version of the envelope encrypted with {@link #_GCM} */
+    private static final byte _ENVELOPE_VERSION_GCM = 1;
+    /** Length of the IV, in bytes, as recommended for GCM */
+    private static final int _IV_LENGTH = 12;
+    /** Length of the envelope before its ciphertext: the version and the IV */
+    private static final int _ENVELOPE_HEADER_LENGTH = 1 + _IV_LENGTH;
+    /** Length of the authentication tag, in bits */
+    private static final int _TAG_LENGTH = 128;
+    /** Version of the streams encrypted in segments with {@link #_GCM} */
+    private static final byte _STREAM_VERSION_SEGMENTED_GCM = 2;
+    /** Length of the salt from which a stream's key is derived, in bytes */
+    private static final int _SALT_LENGTH = 16;
+    /** Size of the clear bytes of a full segment of a stream */
+    private static final int _SEGMENT_SIZE = 64 * 1024;
+    private static final boolean _HAS_GCM_PARAMETER_SPEC = hasGcmParameterSpec();
+    private static final SecureRandom _RANDOM = new SecureRandom();
+    /** Each thread's {@link Cipher} for the default AES mode, used for older digests */
+    private static final ThreadLocal<Cipher> _CIPHER = new ThreadLocal<>();
+    /** Each thread's {@link Cipher} for {@link #_GCM} */
+    private static final ThreadLocal<Cipher> _GCM_CIPHER = new ThreadLocal<>();
+    /** Each thread's {@link Mac} */
+    private static final ThreadLocal<Mac> _MAC = new ThreadLocal<>();
+    /** Label of the key derived for blind indexes */
+    private static final String _PURPOSE_BLIND_INDEX = "CryptographyUtilities.blind_index";
+    /** Label of the keys derived for streams */
+    private static final String _PURPOSE_STREAM = "CryptographyUtilities.stream";
+    /** Number of bytes of the hash kept in a blind index */
+    private static final int _BLIND_INDEX_LENGTH = 16;
+    /** The {@link SecretKey}, once it has been provisioned */
+    private final Future<SecretKey> _SECRET_KEY;
+    /** The key material of the {@link SecretKey}, decoded once */
+    private volatile SecretKeySpec _key_spec;
+    /** The key of blind indexes, derived once */
+    private volatile SecretKeySpec _blind_index_key;
 }
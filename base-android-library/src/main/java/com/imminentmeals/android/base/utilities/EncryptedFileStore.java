@@ -0,0 +1,413 @@
+package com.imminentmeals.android.base.utilities;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.imminentmeals.android.base.utilities.CryptographyUtilities.AES;
+import static com.imminentmeals.android.base.utilities.CryptographyUtilities.HMAC_SHA256;
+
+/**
+ * <p>Stores files encrypted with the key of {@link CryptographyUtilities}, in fixed-size chunks that can each be
+ * deciphered on their own, so that reading from an arbitrary offset only deciphers the chunks it touches.</p>
+ *
+ * <p>Each chunk is encrypted with AES-CTR and followed by its HMAC-SHA256, which also covers the file's header, the
+ * chunk's index, and whether it's the last chunk, so chunks can't be altered, reordered, swapped between files, or
+ * dropped from the end. Files are written whole, with a fresh random nonce each time, and are read through a
+ * memory-mapped {@link FileChannel}.</p>
+ *
+ * Usage:
+ * <pre>
+ * store.write("episode-42", network_stream);
+ * ...
+ * final EncryptedFileStore.EncryptedFile file = store.open("episode-42");
+ * try {
+ *     file.read(position, buffer, 0, buffer.length);
+ * } finally {
+ *     file.close();
+ * }
+ * </pre>
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public class EncryptedFileStore {
+
+    /** Size of the chunks of written files, when not given */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    /** Largest size of the chunks of written files, and of the files that are opened */
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * <p>Constructs an {@link EncryptedFileStore} that writes files in chunks of {@link #DEFAULT_CHUNK_SIZE}.</p>
+     * @param directory The directory in which the files are stored
+     * @param crypto Holder of the key with which the files are encrypted
+     */
+    public EncryptedFileStore(File directory, CryptographyUtilities crypto) {
+        this(directory, crypto, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * <p>Constructs an {@link EncryptedFileStore}.</p>
+     * @param directory The directory in which the files are stored
+     * @param crypto Holder of the key with which the files are encrypted
+     * @param chunk_size The size of the chunks of written files, in bytes, at most {@value #MAX_CHUNK_SIZE}; the
+     *                   chunks of a file are deciphered whole
+     */
+    public EncryptedFileStore(File directory, CryptographyUtilities crypto, @Nonnegative int chunk_size) {
+        this(directory, crypto, chunk_size, _MAX_FILE_SIZE);
+    }
+
+    /**
+     * <p>Constructs an {@link EncryptedFileStore} that refuses to write files larger than the given size.</p>
+     * @param max_file_size The size of the largest file that's written, in bytes, including its header and tags
+     */
+    EncryptedFileStore(File directory, CryptographyUtilities crypto, @Nonnegative int chunk_size,
+                       @Nonnegative long max_file_size) {
+        if (chunk_size <= 0) throw new IllegalArgumentException("Chunk size must be positive");
+        if (chunk_size > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Chunk size must be at most " + MAX_CHUNK_SIZE);
+        _directory = directory;
+        _crypto = crypto;
+        _chunk_size = chunk_size;
+        _max_file_size = Math.min(max_file_size, _MAX_FILE_SIZE);
+    }
+
+    /**
+     * <p>Encrypts the clear stream into the file of the given name, replacing it once the whole stream is written.
+     * The stream isn't closed. Streams that would encrypt to a file too large to open are refused part way, and
+     * temporary files left behind by writes that never finished are deleted once they're
+     * {@value #_GRACE_PERIOD_MILLISECONDS} milliseconds old.</p>
+     * @param name The given name
+     * @param clear The stream to encrypt
+     * @throws IOException Indicates either the stream or the file failed, or the stream is too large
+     * @throws GeneralSecurityException Indicates the key or the algorithms aren't available
+     */
+    public void write(String name, InputStream clear) throws IOException, GeneralSecurityException {
+        final SecretKeySpec encryption_key = _crypto.deriveKey(_PURPOSE_ENCRYPTION, AES);
+        final Mac mac = Mac.getInstance(HMAC_SHA256);
+        mac.init(_crypto.deriveKey(_PURPOSE_AUTHENTICATION, HMAC_SHA256));
+        final Cipher cipher = Cipher.getInstance(_CTR);
+
+        final byte[] nonce = new byte[_NONCE_LENGTH];
+        _RANDOM.nextBytes(nonce);
+        final byte[] header = ByteBuffer.allocate(_HEADER_LENGTH)
+                .put(_VERSION)
+                .putInt(_chunk_size)
+                .put(nonce)
+                .array();
+
+        deleteAbandonedWrites();
+        final File file = file(name);
+        // Unique, so that concurrent writes of the same name don't write into each other's file
+        final File temporary = File.createTempFile(_TEMPORARY_PREFIX, _TEMPORARY_SUFFIX, _directory);
+        OutputStream output = null;
+        boolean threw = true;
+        try {
+            output = new BufferedOutputStream(new FileOutputStream(temporary), _BUFFER_SIZE);
+            output.write(header);
+            long size = _HEADER_LENGTH;
+
+            byte[] chunk = new byte[_chunk_size];
+            byte[] next_chunk = new byte[_chunk_size];
+            final byte[] digest = new byte[_chunk_size];
+            int length = ByteStreams.read(clear, chunk, 0, _chunk_size);
+            // Reads a chunk ahead to know which is the last, which is written even when empty
+            for (long index = 0; ; index++) {
+                final int next_length = length == _chunk_size
+                        ? ByteStreams.read(clear, next_chunk, 0, _chunk_size) : 0;
+                final boolean is_last = next_length == 0;
+                size += length + _MAC_LENGTH;
+                if (size > _max_file_size) throw new IOException("Too large to store: " + name);
+                cipher.init(Cipher.ENCRYPT_MODE, encryption_key, iv(nonce, index));
+                cipher.doFinal(chunk, 0, length, digest, 0);
+                output.write(digest, 0, length);
+                output.write(authenticate(mac, header, index, is_last, ByteBuffer.wrap(digest, 0, length)));
+                if (is_last) break;
+
+                final byte[] written_chunk = chunk;
+                chunk = next_chunk;
+                next_chunk = written_chunk;
+                length = next_length;
+            }
+            Arrays.fill(chunk, (byte) 0);
+            Arrays.fill(next_chunk, (byte) 0);
+            threw = false;
+        } finally {
+            Closeables.close(output, threw);
+            if (threw) {
+                //noinspection ResultOfMethodCallIgnored
+                temporary.delete();
+            }
+        }
+        if (!temporary.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * <p>Opens the file of the given name for reading.</p>
+     * @param name The given name
+     * @return The opened file, which must be closed
+     * @throws FileNotFoundException Indicates there's no file of the given name
+     * @throws IOException Indicates the file couldn't be read, or isn't an encrypted file
+     * @throws GeneralSecurityException Indicates the key or the algorithms aren't available
+     */
+    @Nonnull public EncryptedFile open(String name) throws IOException, GeneralSecurityException {
+        final SecretKeySpec encryption_key = _crypto.deriveKey(_PURPOSE_ENCRYPTION, AES);
+        final Mac mac = Mac.getInstance(HMAC_SHA256);
+        mac.init(_crypto.deriveKey(_PURPOSE_AUTHENTICATION, HMAC_SHA256));
+        return new EncryptedFile(file(name), encryption_key, mac, Cipher.getInstance(_CTR));
+    }
+
+    /**
+     * <p>Deletes the file of the given name.</p>
+     * @param name The given name
+     * @return {@code true} if the file was deleted
+     */
+    public boolean delete(String name) {
+        return file(name).delete();
+    }
+
+    /**
+     * <p>Checks whether there's a file of the given name.</p>
+     * @param name The given name
+     * @return {@code true} if there's a file of the given name
+     */
+    public boolean contains(String name) {
+        return file(name).isFile();
+    }
+
+    /**
+     * <p>File of an {@link EncryptedFileStore} opened for reading. The last chunk read is kept deciphered, so
+     * sequential reads decipher each chunk once. Not safe for use by several threads at once.</p>
+     */
+    public static final class EncryptedFile implements Closeable {
+
+        /**
+         * <p>Retrieves the length of the clear file.</p>
+         * @return The length in bytes
+         */
+        @Nonnegative public long length() {
+            return _length;
+        }
+
+        /**
+         * <p>Reads clear bytes of the file, starting at the given position, deciphering only the chunks they're in.</p>
+         * @param position The given position
+         * @param buffer The buffer into which to read
+         * @param offset The offset in the buffer at which to start
+         * @param length The maximum number of bytes to read
+         * @return The number of bytes read, or -1 if the position is at, or past, the end of the file
+         * @throws IOException Indicates a chunk failed authentication, or the file is closed
+         */
+        public int read(@Nonnegative long position, byte[] buffer, @Nonnegative int offset, @Nonnegative int length)
+                throws IOException {
+            if (_mapped == null) throw new IOException("Closed");
+            if (position >= _length) return -1;
+
+            final int count = (int) Math.min(length, _length - position);
+            int copied = 0;
+            while (copied < count) {
+                final long at = position + copied;
+                final int chunk_offset = (int) (at % _chunk_size);
+                loadChunk(at / _chunk_size);
+                final int run = Math.min(count - copied, _chunk_length - chunk_offset);
+                System.arraycopy(_chunk, chunk_offset, buffer, offset + copied, run);
+                copied += run;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _mapped = null;
+            Arrays.fill(_chunk, (byte) 0);
+            _chunk_index = -1;
+            _file.close();
+        }
+
+        private EncryptedFile(File file, SecretKeySpec encryption_key, Mac mac, Cipher cipher) throws IOException {
+            _file = new RandomAccessFile(file, "r");
+            boolean threw = true;
+            try {
+                final FileChannel channel = _file.getChannel();
+                final long size = channel.size();
+                if (size < _HEADER_LENGTH + _MAC_LENGTH) throw new IOException("Not an encrypted file: " + file);
+                if (size > _MAX_FILE_SIZE) throw new IOException("Too large to map: " + file);
+                _mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+                _header = new byte[_HEADER_LENGTH];
+                _mapped.get(_header);
+                final ByteBuffer header = ByteBuffer.wrap(_header);
+                if (header.get() != _VERSION) throw new IOException("Unknown version: " + file);
+                // Read before the header is authenticated, so it's bounded before anything is sized by it
+                _chunk_size = header.getInt();
+                if (_chunk_size <= 0 || _chunk_size > MAX_CHUNK_SIZE)
+                    throw new IOException("Not an encrypted file: " + file);
+                _nonce = new byte[_NONCE_LENGTH];
+                header.get(_nonce);
+
+                // The last chunk may be short, but is never missing
+                final long stored_size = size - _HEADER_LENGTH;
+                final long stored_chunk_size = (long) _chunk_size + _MAC_LENGTH;
+                _chunk_count = (stored_size + stored_chunk_size - 1) / stored_chunk_size;
+                final long last_length = stored_size - (_chunk_count - 1) * stored_chunk_size - _MAC_LENGTH;
+                if (last_length < 0) throw new IOException("Truncated: " + file);
+                _length = (_chunk_count - 1) * _chunk_size + last_length;
+
+                _encryption_key = encryption_key;
+                _mac = mac;
+                _cipher = cipher;
+                // No chunk is longer than the file, which may be shorter than a chunk
+                _chunk = new byte[(int) Math.min(_chunk_size, _length)];
+                threw = false;
+            } finally {
+                if (threw) Closeables.close(_file, true);
+            }
+        }
+
+        /**
+         * <p>Authenticates and deciphers the chunk of the given index, unless it's the one already deciphered.</p>
+         * @param index The given index
+         * @throws IOException Indicates the chunk failed authentication
+         */
+        private void loadChunk(long index) throws IOException {
+            if (index == _chunk_index) return;
+
+            final boolean is_last = index == _chunk_count - 1;
+            final int start = (int) (_HEADER_LENGTH + index * (_chunk_size + _MAC_LENGTH));
+            final int length = is_last? (int) (_length - index * _chunk_size) : _chunk_size;
+            final ByteBuffer digest = _mapped.duplicate();
+            digest.limit(start + length).position(start);
+            final byte[] stored_tag = new byte[_MAC_LENGTH];
+            final ByteBuffer tag = _mapped.duplicate();
+            tag.limit(start + length + _MAC_LENGTH).position(start + length);
+            tag.get(stored_tag);
+
+            _chunk_index = -1;
+            if (!MessageDigest.isEqual(stored_tag, authenticate(_mac, _header, index, is_last, digest.duplicate())))
+                throw new IOException("Chunk " + index + " failed authentication");
+            try {
+                _cipher.init(Cipher.DECRYPT_MODE, _encryption_key, iv(_nonce, index));
+                _chunk_length = _cipher.doFinal(digest, ByteBuffer.wrap(_chunk));
+            } catch (GeneralSecurityException error) {
+                throw new IOException("Unable to decipher chunk " + index, error);
+            }
+            _chunk_index = index;
+        }
+
+        private final RandomAccessFile _file;
+        private final byte[] _header;
+        private final byte[] _nonce;
+        private final int _chunk_size;
+        private final long _chunk_count;
+        /** Length of the clear file */
+        private final long _length;
+        private final SecretKeySpec _encryption_key;
+        private final Mac _mac;
+        private final Cipher _cipher;
+        /** The last chunk deciphered */
+        private final byte[] _chunk;
+        private long _chunk_index = -1;
+        private int _chunk_length;
+        /** The whole file, {@code null} once closed */
+        private MappedByteBuffer _mapped;
+    }
+
+/* Private helper methods */
+    private void deleteAbandonedWrites() {
+        final File[] files = _directory.listFiles();
+        if (files == null) return;
+
+        final long cutoff = System.currentTimeMillis() - _GRACE_PERIOD_MILLISECONDS;
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(_TEMPORARY_PREFIX) && name.endsWith(_TEMPORARY_SUFFIX)
+                    && file.lastModified() < cutoff) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    @Nonnull private File file(String name) {
+        return new File(_directory, name);
+    }
+
+    /**
+     * <p>Creates the initial counter of the chunk of the given index: the file's nonce, the index, then the count of
+     * blocks within the chunk.</p>
+     */
+    @Nonnull private static IvParameterSpec iv(byte[] nonce, long index) {
+        return new IvParameterSpec(ByteBuffer.allocate(_IV_LENGTH)
+                .put(nonce)
+                .putInt((int) index)
+                .array());
+    }
+
+    /**
+     * <p>Computes the tag of a chunk, over the file's header, the chunk's index, whether it's the last chunk, and its
+     * encrypted bytes.</p>
+     */
+    @Nonnull private static byte[] authenticate(Mac mac, byte[] header, long index, boolean is_last,
+                                                ByteBuffer digest) {
+        mac.update(header);
+        mac.update(ByteBuffer.allocate(_POSITION_LENGTH)
+                .putLong(index)
+                .put((byte) (is_last? 1 : 0))
+                .array());
+        mac.update(digest);
+        return mac.doFinal();
+    }
+
+    private static final String _CTR = "AES/CTR/NoPadding";
+    /** Labels of the keys derived from the key of {@link CryptographyUtilities} */
+    private static final String _PURPOSE_ENCRYPTION = "EncryptedFileStore.encryption";
+    private static final String _PURPOSE_AUTHENTICATION = "EncryptedFileStore.authentication";
+    private static final byte _VERSION = 1;
+    private static final int _NONCE_LENGTH = 8;
+    /** Length of the header: the version, the chunk size, and the nonce */
+    private static final int _HEADER_LENGTH = 1 + 4 + _NONCE_LENGTH;
+    private static final int _IV_LENGTH = 16;
+    private static final int _MAC_LENGTH = 32;
+    /** Length of a chunk's index and last flag, as authenticated */
+    private static final int _POSITION_LENGTH = 8 + 1;
+    private static final int _BUFFER_SIZE = 8192;
+    private static final String _TEMPORARY_PREFIX = ".write-";
+    private static final String _TEMPORARY_SUFFIX = ".tmp";
+    /** Writes whose temporary files haven't changed for this long are taken to be abandoned */
+    private static final long _GRACE_PERIOD_MILLISECONDS = 60 * 60 * 1000;
+    /** Files are mapped whole, so they can't be larger than a buffer */
+    private static final long _MAX_FILE_SIZE = Integer.MAX_VALUE;
+    private static final SecureRandom _RANDOM = new SecureRandom();
+    private final File _directory;
+    private final CryptographyUtilities _crypto;
+    private final int _chunk_size;
+    private final long _max_file_size;
+}
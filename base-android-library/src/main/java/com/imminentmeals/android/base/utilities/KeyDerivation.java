@@ -0,0 +1,320 @@
+package com.imminentmeals.android.base.utilities;
+
+import com.google.common.util.concurrent.Futures;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.imminentmeals.android.base.utilities.CryptographyUtilities.AES;
+
+/**
+ * <p>Salt and number of iterations with which a {@link SecretKey} is derived from a passphrase. The number of
+ * iterations is calibrated to the device, so that deriving takes about a target duration, and is stored with the
+ * salt, see {@link #toString()} and {@link #parse(String)}, so the same key is derived on later unlocks.</p>
+ *
+ * <p>Keys are derived on a background thread and kept in a small in-memory cache, so unlocking again within a
+ * session doesn't derive again. {@link #clearCache()} zeroes the cached key material, for example on sign out. The
+ * cache tells passphrases apart by an HMAC under a key generated for the process, rather than by a plain digest,
+ * which would let guesses at the passphrase be checked without paying for the derivation.</p>
+ *
+ * Usage:
+ * <pre>
+ * // On setting the passphrase, off the main thread
+ * final KeyDerivation derivation = KeyDerivation.calibrate(250);
+ * settings.edit().putString(KEY_DERIVATION, derivation.toString()).apply();
+ * ...
+ * // On unlock
+ * final Future&lt;SecretKey&gt; key = KeyDerivation.parse(settings.getString(KEY_DERIVATION, null))
+ *                                             .deriveKey(passphrase);
+ * </pre>
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public final class KeyDerivation {
+
+    /** Number of iterations of keys derived before calibration */
+    public static final int DEFAULT_ITERATIONS = 1000;
+    /** Least number of iterations that calibration picks, however slow the device */
+    public static final int MINIMUM_ITERATIONS = 1000;
+    /** Length of the generated salts, in bytes */
+    public static final int SALT_LENGTH = 16;
+
+    /**
+     * <p>Constructs a {@link KeyDerivation}.</p>
+     * @param salt The salt added to obscure the derived key
+     * @param iterations The number of iterations
+     */
+    public KeyDerivation(byte[] salt, @Nonnegative int iterations) {
+        if (iterations <= 0) throw new IllegalArgumentException("Iterations must be positive");
+        _salt = salt.clone();
+        _iterations = iterations;
+    }
+
+    /**
+     * <p>Creates a {@link KeyDerivation} with a random salt and a number of iterations that takes about the target
+     * duration on this device. Takes about half the target duration, so call it off the main thread.</p>
+     * @param target_duration The target duration, in milliseconds
+     * @return The calibrated derivation
+     * @throws NoSuchAlgorithmException Indicates the key derivation function isn't available
+     * @throws InvalidKeySpecException Indicates an invalid key specification was requested
+     */
+    @Nonnull public static KeyDerivation calibrate(@Nonnegative long target_duration)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        final byte[] salt = new byte[SALT_LENGTH];
+        _RANDOM.nextBytes(salt);
+        return new KeyDerivation(salt, calibrateIterations(target_duration));
+    }
+
+    /**
+     * <p>Measures the number of iterations that takes about the target duration on this device.</p>
+     * @param target_duration The target duration, in milliseconds
+     * @return The number of iterations, at least {@value #MINIMUM_ITERATIONS}
+     * @throws NoSuchAlgorithmException Indicates the key derivation function isn't available
+     * @throws InvalidKeySpecException Indicates an invalid key specification was requested
+     */
+    @Nonnegative public static int calibrateIterations(@Nonnegative long target_duration)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        // The first run also pays for looking up the provider
+        timeDerivation(_PROBE_ITERATIONS);
+        // Doubles the iterations until a run is long enough to time reliably
+        final long probe_target = TimeUnit.MILLISECONDS.toNanos(target_duration) / _PROBE_FRACTION;
+        int probe_iterations = _PROBE_ITERATIONS;
+        long duration = timeDerivation(probe_iterations);
+        while (duration < probe_target && probe_iterations <= Integer.MAX_VALUE / 2) {
+            probe_iterations *= 2;
+            duration = timeDerivation(probe_iterations);
+        }
+
+        final double iterations = (double) probe_iterations * TimeUnit.MILLISECONDS.toNanos(target_duration)
+                                  / Math.max(1, duration);
+        return (int) Math.max(MINIMUM_ITERATIONS, Math.min(Integer.MAX_VALUE, iterations));
+    }
+
+    /**
+     * <p>Parses a derivation stored with {@link #toString()}.</p>
+     * @param derivation The stored derivation
+     * @return The parsed derivation
+     * @throws IllegalArgumentException Indicates the derivation isn't one stored with {@link #toString()}
+     */
+    @Nonnull public static KeyDerivation parse(String derivation) {
+        final int separator = derivation.indexOf(_SEPARATOR);
+        if (separator <= 0) throw new IllegalArgumentException("Not a key derivation: " + derivation);
+        return new KeyDerivation(CryptographyUtilities.toByte(derivation.substring(separator + 1)),
+                Integer.parseInt(derivation.substring(0, separator)));
+    }
+
+    /**
+     * <p>Retrieves the salt.</p>
+     * @return A copy of the salt
+     */
+    @Nonnull public byte[] salt() {
+        return _salt.clone();
+    }
+
+    /**
+     * <p>Retrieves the number of iterations.</p>
+     * @return The number of iterations
+     */
+    @Nonnegative public int iterations() {
+        return _iterations;
+    }
+
+    /**
+     * <p>Derives the {@link SecretKey} from the given passphrase on a background thread, or retrieves it from the
+     * cache if it was derived earlier in the session. Derivations run one at a time.</p>
+     * @param passphrase The given passphrase, which is copied, so it can be cleared right away
+     * @return The key, once it has been derived
+     */
+    @Nonnull public Future<SecretKey> deriveKey(char[] passphrase) {
+        final byte[] tag = tag(passphrase);
+        final SecretKey cached_key = cachedKey(this, tag);
+        if (cached_key != null) return Futures.immediateFuture(cached_key);
+
+        final char[] passphrase_copy = passphrase.clone();
+        return _DERIVATIONS.submit(new Callable<SecretKey>() {
+            @Override
+            public SecretKey call() throws NoSuchAlgorithmException, InvalidKeySpecException {
+                try {
+                    // Derived by an earlier derivation still in the queue
+                    final SecretKey cached_key = cachedKey(KeyDerivation.this, tag);
+                    if (cached_key != null) return cached_key;
+
+                    final byte[] material = CryptographyUtilities.generateKey(passphrase_copy, KeyDerivation.this)
+                                                                 .getEncoded();
+                    cache(new CachedKey(KeyDerivation.this, tag, material));
+                    return new SecretKeySpec(material, AES);
+                } finally {
+                    Arrays.fill(passphrase_copy, '\0');
+                }
+            }
+        });
+    }
+
+    /**
+     * <p>Zeroes and forgets all the cached key material.</p>
+     */
+    public static void clearCache() {
+        synchronized (_CACHE) {
+            for (CachedKey cached_key : _CACHE)
+                cached_key.zero();
+            _CACHE.clear();
+        }
+    }
+
+    /**
+     * <p>Formats the derivation to be stored, see {@link #parse(String)}.</p>
+     * @return The number of iterations and the salt
+     */
+    @Override
+    public String toString() {
+        return _iterations + _SEPARATOR + CryptographyUtilities.toHex(_salt);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof KeyDerivation)) return false;
+        final KeyDerivation other = (KeyDerivation) object;
+        return _iterations == other._iterations && Arrays.equals(_salt, other._salt);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(_salt) + _iterations;
+    }
+
+/* Private helper methods */
+    /**
+     * <p>Times deriving a key with the given number of iterations.</p>
+     * @return The duration, in nanoseconds
+     */
+    private static long timeDerivation(@Nonnegative int iterations)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        final KeyDerivation probe = new KeyDerivation(new byte[SALT_LENGTH], iterations);
+        final long start = System.nanoTime();
+        CryptographyUtilities.generateKey(_PROBE_PASSPHRASE.clone(), probe);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * <p>Tells the given passphrase apart from others in the cache, without keeping it or a plain digest of it.</p>
+     * @return The HMAC of the passphrase under {@link #_TAG_KEY}
+     */
+    @Nonnull private static byte[] tag(char[] passphrase) {
+        final Mac mac;
+        try {
+            mac = Mac.getInstance(_TAG_ALGORITHM);
+            mac.init(_TAG_KEY);
+        } catch (NoSuchAlgorithmException | InvalidKeyException error) {
+            // Every platform provides it, and the key is generated for it
+            throw new IllegalStateException(error);
+        }
+        final byte[] character = new byte[2];
+        for (char c : passphrase) {
+            character[0] = (byte) (c >> 8);
+            character[1] = (byte) c;
+            mac.update(character);
+        }
+        return mac.doFinal();
+    }
+
+    @Nonnull private static SecretKey generateTagKey() {
+        final byte[] key = new byte[_TAG_KEY_LENGTH];
+        _RANDOM.nextBytes(key);
+        return new SecretKeySpec(key, _TAG_ALGORITHM);
+    }
+
+    @CheckForNull private static SecretKey cachedKey(KeyDerivation derivation, byte[] tag) {
+        synchronized (_CACHE) {
+            for (int i = 0; i < _CACHE.size(); i++) {
+                final CachedKey cached_key = _CACHE.get(i);
+                if (!cached_key.matches(derivation, tag)) continue;
+                // Moves it to the most recently used end
+                _CACHE.add(_CACHE.remove(i));
+                return new SecretKeySpec(cached_key._material, AES);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * <p>Caches the given key, zeroing the key it replaces, or else the least recently used key once the cache is
+     * full.</p>
+     */
+    private static void cache(CachedKey key) {
+        synchronized (_CACHE) {
+            for (int i = 0; i < _CACHE.size(); i++)
+                if (_CACHE.get(i).matches(key._derivation, key._tag)) {
+                    _CACHE.remove(i).zero();
+                    break;
+                }
+            _CACHE.add(key);
+            if (_CACHE.size() > _CACHE_SIZE) _CACHE.remove(0).zero();
+        }
+    }
+
+    /**
+     * <p>Key material derived with a derivation from the passphrase with the given {@link #tag(char[])}.</p>
+     */
+    private static class CachedKey {
+
+        CachedKey(KeyDerivation derivation, byte[] tag, byte[] material) {
+            _derivation = derivation;
+            _tag = tag;
+            _material = material;
+        }
+
+        boolean matches(KeyDerivation derivation, byte[] tag) {
+            return _derivation.equals(derivation) && MessageDigest.isEqual(_tag, tag);
+        }
+
+        void zero() {
+            Arrays.fill(_tag, (byte) 0);
+            Arrays.fill(_material, (byte) 0);
+        }
+
+        private final KeyDerivation _derivation;
+        private final byte[] _tag;
+        private final byte[] _material;
+    }
+
+    private static final String _SEPARATOR = "$";
+    private static final String _TAG_ALGORITHM = "HmacSHA256";
+    /** Length of the key of the passphrases' tags, in bytes */
+    private static final int _TAG_KEY_LENGTH = 32;
+    /** Number of iterations first timed during calibration */
+    private static final int _PROBE_ITERATIONS = 1000;
+    /** Fraction of the target duration that a timed run must take during calibration */
+    private static final int _PROBE_FRACTION = 4;
+    private static final char[] _PROBE_PASSPHRASE = "calibration".toCharArray();
+    /** Number of derived keys kept */
+    private static final int _CACHE_SIZE = 4;
+    private static final SecureRandom _RANDOM = new SecureRandom();
+    /** Key of the passphrases' tags, generated for the process and never stored */
+    private static final SecretKey _TAG_KEY = generateTagKey();
+    /** Derives keys, one at a time, since each derivation keeps a processor busy */
+    private static final ExecutorService _DERIVATIONS = Executors.newSingleThreadExecutor();
+    /** Derived keys, least recently used first */
+    private static final List<CachedKey> _CACHE = newArrayList();
+    private final byte[] _salt;
+    private final int _iterations;
+}
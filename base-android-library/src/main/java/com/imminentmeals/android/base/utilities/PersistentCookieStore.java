@@ -0,0 +1,662 @@
+package com.imminentmeals.android.base.utilities;
+
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.Futures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.imminentmeals.android.base.utilities.CryptographyUtilities.AES;
+import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGE;
+
+/**
+ * <p>A {@linkplain CookieStore cookie jar} for any number of hosts, that persists its cookies, encrypted with the key
+ * of {@link CryptographyUtilities}, through app launches.</p>
+ *
+ * <p>Cookies are indexed by domain in a trie keyed by the domain's labels from the top-level down, so looking up the
+ * cookies for a host only visits the host's own domain and the domains above it, and then are matched by path.
+ * Cookies that expire are kept in a min-heap by expiry, so expired cookies are purged in {@code O(log n)} each,
+ * before every lookup. Cookies without an expiry, session cookies included, are kept until they're replaced or
+ * removed.</p>
+ *
+ * <p>Each change is appended to the file as its own record, sealed with AES-GCM, on a background thread shared by
+ * all the stores, so adding a cookie never waits on the disk. Once the file holds many more records than there are
+ * cookies, it's compacted in the background, by rewriting the live cookies to a new file that replaces the old one.
+ * The file is read in the background as soon as the store is constructed; the first use waits for it. A record
+ * cut off by the process dying mid-write is dropped, along with anything after it. When the file can't be read at
+ * all, the store keeps its cookies in memory only, until the next launch, rather than overwrite the ones it
+ * couldn't read.</p>
+ *
+ * <p>A domain that doesn't start with a {@code '.'} only matches its own host, and one that does also matches its
+ * sub-domains, like {@link HttpCookie#domainMatches(String, String)}. Cookies added without a domain are given the
+ * host of the {@link URI} they were added for.</p>
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public class PersistentCookieStore implements CookieStore {
+
+    /**
+     * <p>Constructs a {@link PersistentCookieStore}, and starts reading its cookies from the file in the
+     * background.</p>
+     * @param file The file in which the cookies are stored
+     * @param crypto Holder of the key with which the cookies are encrypted
+     */
+    public PersistentCookieStore(File file, CryptographyUtilities crypto) {
+        _file = file;
+        _crypto = crypto;
+        _loaded = _DISK.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                load();
+                return null;
+            }
+        });
+    }
+
+/* Cookie Store */
+    @Override
+    public void add(@Nullable URI uri, HttpCookie cookie) {
+        awaitLoad();
+        if (cookie.getDomain() == null) {
+            if (uri == null || uri.getHost() == null) return;
+            cookie.setDomain(uri.getHost());
+        }
+        if (cookie.getPath() == null) cookie.setPath(_ROOT_PATH);
+
+        final long now = System.currentTimeMillis();
+        final StoredCookie stored = new StoredCookie(cookie, expiresAt(cookie, now));
+        synchronized (this) {
+            purge(now);
+            if (stored.expires_at <= now) {
+                // Expiring a cookie is how servers delete it
+                if (remove(stored.domain, stored.key) != null) append(removeRecord(stored));
+                return;
+            }
+            put(stored);
+            append(putRecord(stored));
+        }
+    }
+
+    @Override
+    public List<HttpCookie> get(URI uri) {
+        awaitLoad();
+        final String host = uri.getHost();
+        if (host == null) return Collections.emptyList();
+        final String path = uri.getPath() == null || uri.getPath().isEmpty()? _ROOT_PATH : uri.getPath();
+        final boolean is_secure = "https".equalsIgnoreCase(uri.getScheme());
+
+        final List<HttpCookie> cookies = newArrayList();
+        synchronized (this) {
+            purge(System.currentTimeMillis());
+            // Walks the domain's labels from the top-level down, collecting cookies of the domains above the host
+            // that match sub-domains, and every cookie of the host itself
+            final String[] labels = labels(host);
+            DomainNode node = _root;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                node = node.children.get(labels[i]);
+                if (node == null) break;
+                final boolean is_host = i == 0;
+                for (StoredCookie stored : node.cookies.values())
+                    if ((is_host || stored.matches_sub_domains) && (is_secure || !stored.cookie.getSecure())
+                            && pathMatches(stored.cookie.getPath(), path))
+                        cookies.add(stored.cookie);
+            }
+        }
+        return Collections.unmodifiableList(cookies);
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        awaitLoad();
+        final List<HttpCookie> cookies = newArrayList();
+        synchronized (this) {
+            purge(System.currentTimeMillis());
+            for (DomainNode node : nodes())
+                for (StoredCookie stored : node.cookies.values())
+                    cookies.add(stored.cookie);
+        }
+        return Collections.unmodifiableList(cookies);
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        awaitLoad();
+        final List<URI> uris = newArrayList();
+        synchronized (this) {
+            purge(System.currentTimeMillis());
+            for (DomainNode node : nodes())
+                if (!node.cookies.isEmpty())
+                    uris.add(URI.create("http://" + node.domain + _ROOT_PATH));
+        }
+        return Collections.unmodifiableList(uris);
+    }
+
+    @Override
+    public boolean remove(@Nullable URI uri, HttpCookie cookie) {
+        awaitLoad();
+        String domain = cookie.getDomain();
+        if (domain == null) {
+            if (uri == null || uri.getHost() == null) return false;
+            domain = uri.getHost();
+        }
+        final String path = cookie.getPath() == null? _ROOT_PATH : cookie.getPath();
+        final StoredCookie stored = new StoredCookie(cookie.getName(), domain, path);
+        synchronized (this) {
+            purge(System.currentTimeMillis());
+            if (remove(stored.domain, stored.key) == null) return false;
+            append(removeRecord(stored));
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeAll() {
+        awaitLoad();
+        synchronized (this) {
+            final boolean had_cookies = _size > 0;
+            clear();
+            append(new byte[] { _RECORD_CLEAR });
+            return had_cookies;
+        }
+    }
+
+    /**
+     * <p>Waits for the changes made so far to be written to the file, and for the compactions they lead to.</p>
+     * @throws InterruptedException Indicates the calling thread was interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        do {
+            try {
+                _DISK.submit(new Runnable() {
+                    @Override
+                    public void run() { }
+                }).get();
+            } catch (ExecutionException error) {
+                // Does nothing, so it can't fail
+                throw new IllegalStateException(error.getCause());
+            }
+        } while (isCompactionScheduled());
+    }
+
+/* Private helper methods */
+    private void awaitLoad() {
+        // Never throws, load() handles its own failures
+        Futures.getUnchecked(_loaded);
+    }
+
+    /**
+     * <p>Replays the records of the file, on the disk thread. Stops at the first record that's cut off or can't be
+     * authenticated, and then compacts, so the file only holds what was read. The file is left alone when it can't
+     * be read at all, or the key isn't available, and nothing more is written to it, so a passing failure doesn't
+     * lose the cookies.</p>
+     */
+    private void load() {
+        if (!_file.exists()) return;
+        DataInputStream records = null;
+        boolean is_corrupt = false;
+        boolean is_unreadable = false;
+        try {
+            records = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+            final SecretKeySpec key = key();
+            synchronized (this) {
+                while (true) {
+                    final int length;
+                    try {
+                        length = records.readInt();
+                    } catch (EOFException _) {
+                        break;
+                    }
+                    if (length <= 0 || length > _MAXIMUM_RECORD_LENGTH) throw new EOFException("Corrupt record");
+                    final byte[] envelope = new byte[length];
+                    records.readFully(envelope);
+                    replay(CryptographyUtilities.open(key, envelope));
+                }
+            }
+        } catch (EOFException _) {
+            // Cut off by the process dying mid-write
+            is_corrupt = true;
+        } catch (IOException | InvalidKeyException error) {
+            AUTOTAGLOGE(error);
+            is_unreadable = true;
+        } catch (GeneralSecurityException error) {
+            AUTOTAGLOGE(error);
+            is_corrupt = true;
+        } finally {
+            try {
+                Closeables.close(records, true);
+            } catch (IOException _) { }
+        }
+
+        synchronized (this) {
+            purge(System.currentTimeMillis());
+            // Compacting, or appending, would leave the file with only what's in memory
+            if (is_unreadable) _is_memory_only = true;
+            else if (is_corrupt || isBloated()) scheduleCompaction();
+        }
+    }
+
+    /**
+     * <p>Applies the record to the cookies, without appending it again.</p>
+     */
+    private void replay(byte[] record) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        _record_count++;
+        switch (input.readByte()) {
+            case _RECORD_PUT: {
+                final HttpCookie cookie = new HttpCookie(input.readUTF(), input.readUTF());
+                cookie.setDomain(input.readUTF());
+                cookie.setPath(input.readUTF());
+                final long expires_at = input.readLong();
+                cookie.setSecure(input.readBoolean());
+                cookie.setVersion(input.readInt());
+                if (expires_at != _NEVER)
+                    cookie.setMaxAge(
+                            Math.max(0, TimeUnit.MILLISECONDS.toSeconds(expires_at - System.currentTimeMillis())));
+                put(new StoredCookie(cookie, expires_at));
+                break;
+            }
+            case _RECORD_REMOVE: {
+                final StoredCookie stored = new StoredCookie(input.readUTF(), input.readUTF(), input.readUTF());
+                remove(stored.domain, stored.key);
+                break;
+            }
+            case _RECORD_CLEAR:
+                clear();
+                break;
+            default:
+                throw new IOException("Unknown record");
+        }
+    }
+
+    /**
+     * <p>Indexes the cookie, replacing the one with the same name, domain, and path.</p>
+     */
+    private void put(StoredCookie stored) {
+        DomainNode node = _root;
+        final String[] labels = labels(stored.domain);
+        for (int i = labels.length - 1; i >= 0; i--) {
+            DomainNode child = node.children.get(labels[i]);
+            if (child == null) {
+                child = new DomainNode(node == _root? labels[i] : labels[i] + '.' + node.domain);
+                node.children.put(labels[i], child);
+            }
+            node = child;
+        }
+        final StoredCookie replaced = node.cookies.put(stored.key, stored);
+        if (replaced == null) _size++;
+        else if (replaced.expires_at != _NEVER) _stale_count++;
+        if (stored.expires_at != _NEVER) _expiries.add(stored);
+        rebuildExpiriesIfStale();
+    }
+
+    /**
+     * <p>Removes the cookie with the given key from the given domain.</p>
+     * @return The removed cookie, or {@code null} if there wasn't one
+     */
+    @CheckForNull private StoredCookie remove(String domain, String key) {
+        final DomainNode node = node(domain);
+        if (node == null) return null;
+        final StoredCookie removed = node.cookies.remove(key);
+        if (removed == null) return null;
+        _size--;
+        if (removed.expires_at != _NEVER) {
+            _stale_count++;
+            rebuildExpiriesIfStale();
+        }
+        return removed;
+    }
+
+    private void clear() {
+        _root.children.clear();
+        _expiries.clear();
+        _size = 0;
+        _stale_count = 0;
+    }
+
+    @CheckForNull private DomainNode node(String domain) {
+        DomainNode node = _root;
+        final String[] labels = labels(domain);
+        for (int i = labels.length - 1; i >= 0 && node != null; i--)
+            node = node.children.get(labels[i]);
+        return node;
+    }
+
+    /**
+     * <p>Removes the cookies that have expired by the given time, earliest first. Entries of the heap that were
+     * replaced or removed since are dropped along the way.</p>
+     */
+    private void purge(long now) {
+        StoredCookie earliest;
+        while ((earliest = _expiries.peek()) != null && earliest.expires_at <= now) {
+            _expiries.poll();
+            final DomainNode node = node(earliest.domain);
+            if (node != null && node.cookies.get(earliest.key) == earliest) {
+                node.cookies.remove(earliest.key);
+                _size--;
+            } else _stale_count--;
+        }
+    }
+
+    /**
+     * <p>Rebuilds the heap from the live cookies once more than half its entries were replaced or removed, so a
+     * cookie refreshed on every response doesn't grow it without bound.</p>
+     */
+    private void rebuildExpiriesIfStale() {
+        if (_stale_count <= _expiries.size() / 2) return;
+        _expiries.clear();
+        for (DomainNode node : nodes())
+            for (StoredCookie stored : node.cookies.values())
+                if (stored.expires_at != _NEVER) _expiries.add(stored);
+        _stale_count = 0;
+    }
+
+    /**
+     * <p>Lists every domain of the trie, breadth first.</p>
+     */
+    @Nonnull private List<DomainNode> nodes() {
+        final List<DomainNode> nodes = newArrayList();
+        final Deque<DomainNode> pending = new ArrayDeque<>(_root.children.values());
+        while (!pending.isEmpty()) {
+            final DomainNode node = pending.poll();
+            nodes.add(node);
+            pending.addAll(node.children.values());
+        }
+        return nodes;
+    }
+
+    /**
+     * <p>Queues the record to be sealed and appended to the file, and schedules a compaction once the file holds
+     * many more records than there are cookies. Does nothing once the store keeps its cookies in memory only.</p>
+     */
+    private void append(final byte[] record) {
+        if (_is_memory_only) return;
+        _DISK.execute(new Runnable() {
+            @Override
+            public void run() {
+                DataOutputStream output = null;
+                try {
+                    final byte[] envelope = seal(record);
+                    output = new DataOutputStream(new FileOutputStream(_file, true));
+                    output.writeInt(envelope.length);
+                    output.write(envelope);
+                } catch (IOException | GeneralSecurityException error) {
+                    AUTOTAGLOGE(error);
+                } finally {
+                    try {
+                        Closeables.close(output, true);
+                    } catch (IOException _) { }
+                }
+                synchronized (PersistentCookieStore.this) {
+                    _record_count++;
+                    if (isBloated()) scheduleCompaction();
+                }
+            }
+        });
+    }
+
+    private boolean isBloated() {
+        return _record_count > _COMPACTION_THRESHOLD && _record_count > _COMPACTION_RATIO * _size;
+    }
+
+    private synchronized boolean isCompactionScheduled() {
+        return _is_compaction_scheduled;
+    }
+
+    private void scheduleCompaction() {
+        if (_is_compaction_scheduled || _is_memory_only) return;
+        _is_compaction_scheduled = true;
+        _DISK.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * <p>Rewrites the live cookies to a new file, on the disk thread, and moves it over the old one. Changes queued
+     * after the snapshot are appended to the new file, and replaying one the snapshot already holds is harmless.</p>
+     */
+    private void compact() {
+        final List<byte[]> records = newArrayList();
+        synchronized (this) {
+            _is_compaction_scheduled = false;
+            purge(System.currentTimeMillis());
+            for (DomainNode node : nodes())
+                for (StoredCookie stored : node.cookies.values())
+                    records.add(putRecord(stored));
+        }
+
+        final File compacted = new File(_file.getPath() + _COMPACTION_SUFFIX);
+        DataOutputStream output = null;
+        boolean threw = true;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)));
+            for (byte[] record : records) {
+                final byte[] envelope = seal(record);
+                output.writeInt(envelope.length);
+                output.write(envelope);
+            }
+            threw = false;
+        } catch (IOException | GeneralSecurityException error) {
+            AUTOTAGLOGE(error);
+        } finally {
+            try {
+                Closeables.close(output, threw);
+            } catch (IOException error) {
+                AUTOTAGLOGE(error);
+                threw = true;
+            }
+        }
+        if (threw || !compacted.renameTo(_file)) {
+            //noinspection ResultOfMethodCallIgnored
+            compacted.delete();
+            return;
+        }
+        synchronized (this) {
+            _record_count = records.size();
+        }
+    }
+
+    @Nonnull private byte[] seal(byte[] record) throws GeneralSecurityException, IOException {
+        return CryptographyUtilities.seal(key(), record);
+    }
+
+    /**
+     * <p>Retrieves the key the records are sealed with, derived from the key of {@link CryptographyUtilities} once.</p>
+     */
+    @Nonnull private SecretKeySpec key() throws GeneralSecurityException, IOException {
+        if (_key == null) _key = _crypto.deriveKey(_PURPOSE, AES);
+        return _key;
+    }
+
+    @Nonnull private static byte[] putRecord(StoredCookie stored) {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(record);
+        try {
+            output.writeByte(_RECORD_PUT);
+            output.writeUTF(stored.cookie.getName());
+            output.writeUTF(stored.cookie.getValue() == null? "" : stored.cookie.getValue());
+            output.writeUTF(stored.cookie.getDomain());
+            output.writeUTF(stored.cookie.getPath());
+            output.writeLong(stored.expires_at);
+            output.writeBoolean(stored.cookie.getSecure());
+            output.writeInt(stored.cookie.getVersion());
+        } catch (IOException error) {
+            // Writes to memory
+            throw new IllegalStateException(error);
+        }
+        return record.toByteArray();
+    }
+
+    @Nonnull private static byte[] removeRecord(StoredCookie stored) {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(record);
+        try {
+            output.writeByte(_RECORD_REMOVE);
+            output.writeUTF(stored.name);
+            output.writeUTF(stored.raw_domain);
+            output.writeUTF(stored.path);
+        } catch (IOException error) {
+            // Writes to memory
+            throw new IllegalStateException(error);
+        }
+        return record.toByteArray();
+    }
+
+    /**
+     * <p>Determines when the cookie expires, from its max age.</p>
+     * @return The time it expires, in milliseconds, or {@link #_NEVER}
+     */
+    private static long expiresAt(HttpCookie cookie, long now) {
+        final long max_age = cookie.getMaxAge();
+        if (max_age < 0) return _NEVER;
+        if (max_age > TimeUnit.MILLISECONDS.toSeconds(_NEVER - now)) return _NEVER - 1;
+        return now + TimeUnit.SECONDS.toMillis(max_age);
+    }
+
+    /**
+     * <p>Splits the domain, without its leading {@code '.'}, into its labels.</p>
+     */
+    @Nonnull private static String[] labels(String domain) {
+        return normalize(domain).split("\\.");
+    }
+
+    @Nonnull private static String normalize(String domain) {
+        final String lower_case = domain.toLowerCase(Locale.US);
+        return lower_case.startsWith(".")? lower_case.substring(1) : lower_case;
+    }
+
+    /**
+     * <p>Determines whether the cookie's path matches the request's path, the path or a directory above it.</p>
+     */
+    private static boolean pathMatches(String cookie_path, String path) {
+        if (!path.startsWith(cookie_path)) return false;
+        return path.length() == cookie_path.length() || cookie_path.endsWith("/")
+               || path.charAt(cookie_path.length()) == '/';
+    }
+
+    /**
+     * <p>A domain of the trie, with the cookies set for it by name and path, and the domains directly below it by
+     * label.</p>
+     */
+    private static class DomainNode {
+        final String domain;
+        final Map<String, DomainNode> children = newHashMap();
+        final Map<String, StoredCookie> cookies = newHashMap();
+
+        DomainNode(String domain) {
+            this.domain = domain;
+        }
+    }
+
+    /**
+     * <p>A cookie as indexed: its normalized domain, its key within the domain, and when it expires.</p>
+     */
+    private static class StoredCookie {
+        final HttpCookie cookie;
+        final String name;
+        final String raw_domain;
+        final String domain;
+        final String path;
+        /** Identifies the cookie within its domain: a host-only cookie and a domain cookie can share a name */
+        final String key;
+        final boolean matches_sub_domains;
+        final long expires_at;
+
+        StoredCookie(HttpCookie cookie, long expires_at) {
+            this(cookie, cookie.getName(), cookie.getDomain(), cookie.getPath(), expires_at);
+        }
+
+        StoredCookie(String name, String domain, String path) {
+            this(null, name, domain, path, _NEVER);
+        }
+
+        private StoredCookie(@Nullable HttpCookie cookie, String name, String domain, String path, long expires_at) {
+            this.cookie = cookie;
+            this.name = name;
+            this.raw_domain = domain;
+            this.domain = normalize(domain);
+            this.path = path;
+            matches_sub_domains = domain.startsWith(".");
+            key = (matches_sub_domains? "." : "") + ';' + path + ';' + name;
+            this.expires_at = expires_at;
+        }
+    }
+
+    private static final byte _RECORD_PUT = 1;
+    private static final byte _RECORD_REMOVE = 2;
+    private static final byte _RECORD_CLEAR = 3;
+    /** Longest record read, anything longer means the file is corrupt */
+    private static final int _MAXIMUM_RECORD_LENGTH = 64 * 1024;
+    /** Number of records below which the file is never compacted */
+    private static final int _COMPACTION_THRESHOLD = 64;
+    /** Number of records per cookie above which the file is compacted */
+    private static final int _COMPACTION_RATIO = 2;
+    private static final String _COMPACTION_SUFFIX = ".compacting";
+    private static final String _ROOT_PATH = "/";
+    /** Expiry of cookies that don't expire */
+    private static final long _NEVER = Long.MAX_VALUE;
+    private static final String _PURPOSE = "PersistentCookieStore.records";
+    /** Writes the files of all the stores, one change at a time, in order */
+    private static final ExecutorService _DISK = Executors.newSingleThreadExecutor();
+    private final File _file;
+    private final CryptographyUtilities _crypto;
+    /** Completes once the file has been read */
+    private final Future<Void> _loaded;
+    private final DomainNode _root = new DomainNode("");
+    /** Cookies that expire, earliest first, including entries since replaced or removed */
+    private final PriorityQueue<StoredCookie> _expiries = new PriorityQueue<>(11, new Comparator<StoredCookie>() {
+        @Override
+        public int compare(StoredCookie left, StoredCookie right) {
+            return left.expires_at < right.expires_at? -1 : left.expires_at == right.expires_at? 0 : 1;
+        }
+    });
+    /** Number of live cookies */
+    private int _size;
+    /** Number of entries of {@link #_expiries} that were replaced or removed */
+    private int _stale_count;
+    /** Number of records in the file, counted on the disk thread as they're written */
+    private int _record_count;
+    private boolean _is_compaction_scheduled;
+    /** Set when the file couldn't be read, after which nothing is written to it */
+    private boolean _is_memory_only;
+    /** Derived on the disk thread, see {@link #key()} */
+    private SecretKeySpec _key;
+}
@@ -0,0 +1,146 @@
+package com.imminentmeals.android.base.utilities;
+
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGD;
+
+/**
+ * <p>Runs and times the phases of application start according to their {@link Priority}: critical phases run right
+ * away, on the calling thread; background phases run one after the other on a background thread; idle phases run on
+ * the main thread once it first goes idle, after the first frames are drawn. Each phase's duration is reported to
+ * the {@link Listener}.</p>
+ *
+ * Usage, from {@link android.app.Application#onCreate()}:
+ * <pre>
+ * final StartupPhases phases = new StartupPhases();
+ * phases.run("object graph", Priority.CRITICAL, new Runnable() { ... });
+ * phases.run("HTTP cache", Priority.BACKGROUND, new Runnable() { ... });
+ * phases.finish();
+ * </pre>
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public final class StartupPhases {
+
+    /**
+     * <p>When a phase runs.</p>
+     */
+    public enum Priority {
+        /** Runs right away, on the cold-start path */
+        CRITICAL,
+        /** Runs on a background thread, after the earlier background phases */
+        BACKGROUND,
+        /** Runs on the main thread once it goes idle */
+        IDLE
+    }
+
+    /**
+     * <p>Told about the duration of each phase.</p>
+     */
+    public interface Listener {
+        /**
+         * <p>Called after a phase has run, on the thread it ran on.</p>
+         * @param phase the name of the phase
+         * @param priority the priority with which it ran
+         * @param duration the duration of the phase, in nanoseconds
+         */
+        void onPhaseFinished(String phase, Priority priority, @Nonnegative long duration);
+    }
+
+    /**
+     * <p>Constructs a {@link StartupPhases} that tells the given listener about each phase. Must be constructed on the
+     * main thread.</p>
+     * @param listener the given listener
+     */
+    public StartupPhases(Listener listener) {
+        _listener = listener;
+        _idle_queue = Looper.myQueue();
+    }
+
+    /**
+     * <p>Constructs a {@link StartupPhases} that logs the duration of each phase at the debug level. Must be
+     * constructed on the main thread.</p>
+     */
+    public StartupPhases() {
+        this(new Listener() {
+            @Override
+            public void onPhaseFinished(String phase, Priority priority, long duration) {
+                log(phase, priority, duration);
+            }
+        });
+    }
+
+    /**
+     * <p>Runs the given phase with the given priority.</p>
+     * @param phase the name of the phase
+     * @param priority the given priority
+     * @param work the work of the phase
+     */
+    public void run(final String phase, final Priority priority, final Runnable work) {
+        final Runnable timed_work = new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                work.run();
+                final long duration = System.nanoTime() - start;
+                if (priority == Priority.CRITICAL) _critical_duration += duration;
+                _listener.onPhaseFinished(phase, priority, duration);
+            }
+        };
+
+        switch (priority) {
+            case CRITICAL:
+                timed_work.run();
+                break;
+            case BACKGROUND:
+                _BACKGROUND.execute(timed_work);
+                break;
+            case IDLE:
+                _idle_queue.addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        timed_work.run();
+                        // Runs once
+                        return false;
+                    }
+                });
+                break;
+        }
+    }
+
+    /**
+     * <p>Reports the total duration of the critical phases, as the phase {@value #CRITICAL_PATH}.</p>
+     */
+    public void finish() {
+        _listener.onPhaseFinished(CRITICAL_PATH, Priority.CRITICAL, _critical_duration);
+    }
+
+    /**
+     * <p>Logs the duration of the given phase at the debug level, in milliseconds.</p>
+     * @param phase the name of the phase
+     * @param priority the priority with which it ran
+     * @param duration the duration of the phase, in nanoseconds
+     */
+    public static void log(String phase, Priority priority, @Nonnegative long duration) {
+        AUTOTAGLOGD("%s (%s) took %.1f ms", phase, priority, duration / _NANOSECONDS_PER_MILLISECOND);
+    }
+
+    /** Name with which the total duration of the critical phases is reported */
+    public static final String CRITICAL_PATH = "critical path";
+    private static final double _NANOSECONDS_PER_MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+    /** Runs the background phases, one after the other */
+    private static final ExecutorService _BACKGROUND = Executors.newSingleThreadExecutor();
+    private final Listener _listener;
+    /** Queue of the main thread, on which the idle phases run */
+    private final MessageQueue _idle_queue;
+    /** Total duration of the critical phases, in nanoseconds */
+    private long _critical_duration;
+}
@@ -271,20 +271,7 @@ public final class StringUtilities {
         try {
 
             final byte[] hash = MessageDigest.getInstance("MD5").digest(message.getBytes("UTF-8"));
-            final StringBuilder digest = new StringBuilder();
-
-            for (byte byte_character : hash) {
-                String hex = Integer.toHexString(byte_character);
-
-                if (hex.length() == 1) {
-                    digest.append('0');
-                    digest.append(hex.charAt(hex.length() - 1));
-                } else
-                    digest.append(hex.substring(hex.length() - 2));
-            }
-
-            return digest.toString();
-
+            return Codecs.toHex(hash, Codecs.LOWER_CASE);
         } catch (Exception error) {
             throw new Md5DigestException(error);
         }
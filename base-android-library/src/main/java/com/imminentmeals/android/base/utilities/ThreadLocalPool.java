@@ -0,0 +1,156 @@
+package com.imminentmeals.android.base.utilities;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * <p>Pool of reusable objects that never locks. Each thread first borrows from and returns to its own bounded cache,
+ * which needs no synchronization at all; objects that don't fit in the thread's cache go to a bounded, shared
+ * lock-free stack, from which any thread can borrow. When both are empty a new object is created, so borrowing never
+ * fails or waits.</p>
+ *
+ * Usage:
+ * <pre>
+ * final QueryBuilder query = pool.borrow();
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(query);
+ * }
+ * </pre>
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public final class ThreadLocalPool<T> {
+
+    /**
+     * <p>Creates and resets the pooled objects.</p>
+     */
+    public interface Factory<T> {
+        /**
+         * <p>Creates a new object, called when the pool is empty.</p>
+         */
+        @Nonnull T create();
+
+        /**
+         * <p>Resets the given object to a reusable state, called when it is returned to the pool.</p>
+         */
+        void reset(T object);
+    }
+
+    /**
+     * <p>Constructs a {@link ThreadLocalPool}.</p>
+     * @param factory creates and resets the pooled objects
+     * @param per_thread_capacity the number of objects each thread caches
+     * @param shared_capacity the number of objects the shared stack holds
+     */
+    public ThreadLocalPool(Factory<T> factory, @Nonnegative int per_thread_capacity,
+                           @Nonnegative int shared_capacity) {
+        _factory = factory;
+        _per_thread_capacity = per_thread_capacity;
+        _shared_capacity = shared_capacity;
+    }
+
+    /**
+     * <p>Constructs a {@link ThreadLocalPool} with the default capacities.</p>
+     * @param factory creates and resets the pooled objects
+     */
+    public ThreadLocalPool(Factory<T> factory) {
+        this(factory, _DEFAULT_PER_THREAD_CAPACITY, _DEFAULT_SHARED_CAPACITY);
+    }
+
+    /**
+     * <p>Borrows an object from the pool, creating one if the pool is empty.</p>
+     * @return the borrowed object
+     */
+    @Nonnull public T borrow() {
+        final T cached_object = _thread_cache.get().poll();
+        if (cached_object != null) return cached_object;
+
+        final T shared_object = pop();
+        return shared_object != null? shared_object : _factory.create();
+    }
+
+    /**
+     * <p>Resets the given object and returns it to the pool, or drops it when the pool is full.</p>
+     * @param object the given object, ignored when {@code null}
+     */
+    public void release(@Nullable T object) {
+        if (object == null) return;
+
+        _factory.reset(object);
+        final ArrayDeque<T> thread_cache = _thread_cache.get();
+        if (thread_cache.size() < _per_thread_capacity)
+            thread_cache.push(object);
+        else
+            push(object);
+    }
+
+/* Private helper methods */
+    /**
+     * <p>Pushes the given object onto the shared stack, unless it is full.</p>
+     * @param object the given object
+     */
+    private void push(T object) {
+        // Reserves a slot first, so that the stack never exceeds its capacity
+        int size;
+        do {
+            size = _shared_size.get();
+            if (size >= _shared_capacity) return;
+        } while (!_shared_size.compareAndSet(size, size + 1));
+
+        final Node<T> node = new Node<>(object);
+        do {
+            node.next = _shared_top.get();
+        } while (!_shared_top.compareAndSet(node.next, node));
+    }
+
+    /**
+     * <p>Pops an object from the shared stack.</p>
+     * @return the object, or {@code null} if the stack is empty
+     */
+    @CheckForNull private T pop() {
+        Node<T> top;
+        do {
+            top = _shared_top.get();
+            if (top == null) return null;
+        } while (!_shared_top.compareAndSet(top, top.next));
+
+        _shared_size.decrementAndGet();
+        return top.object;
+    }
+
+    /** Node of the shared stack, a new node per push keeps the stack free of the ABA problem */
+    private static final class Node<T> {
+        Node(T object) {
+            this.object = object;
+        }
+
+        final T object;
+        Node<T> next;
+    }
+
+    private static final int _DEFAULT_PER_THREAD_CAPACITY = 4;
+    private static final int _DEFAULT_SHARED_CAPACITY = 16;
+    private final Factory<T> _factory;
+    private final int _per_thread_capacity;
+    private final int _shared_capacity;
+    /** Objects cached by each thread */
+    private final ThreadLocal<ArrayDeque<T>> _thread_cache = new ThreadLocal<ArrayDeque<T>>() {
+        @Override
+        protected ArrayDeque<T> initialValue() {
+            return new ArrayDeque<>(_per_thread_capacity);
+        }
+    };
+    /** Top of the shared stack */
+    private final AtomicReference<Node<T>> _shared_top = new AtomicReference<>();
+    /** Number of objects in, or about to be pushed onto, the shared stack */
+    private final AtomicInteger _shared_size = new AtomicInteger();
+}
@@ -0,0 +1,64 @@
+package com.imminentmeals.android.base.utilities;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * <p>Fixed pool of threads that CPU-bound work is split across, which can tell its own threads apart. Work that is
+ * split from one of the pool's own threads must run inline instead: waiting on the pool from its own threads can
+ * leave no thread free to run the parts being waited on.</p>
+ *
+ * Usage:
+ * <pre>
+ * if (workers.isWorkerThread())
+ *     partition.run();
+ * else
+ *     workers.execute(partition);
+ * </pre>
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public final class WorkerPool implements Executor {
+
+    /**
+     * <p>Constructs a {@link WorkerPool}.</p>
+     * @param thread_count the number of threads in the pool
+     */
+    public WorkerPool(@Nonnegative int thread_count) {
+        _threads = Executors.newFixedThreadPool(Math.max(1, thread_count), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return _THREAD_FACTORY.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        _is_worker_thread.set(true);
+                        runnable.run();
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        _threads.execute(task);
+    }
+
+    /**
+     * <p>Determines if the calling thread is one of the pool's threads.</p>
+     * @return {@code true} indicates that the calling thread belongs to the pool
+     */
+    public boolean isWorkerThread() {
+        return _is_worker_thread.get() != null;
+    }
+
+    private static final ThreadFactory _THREAD_FACTORY = Executors.defaultThreadFactory();
+    /** Set on each of the pool's threads */
+    private final ThreadLocal<Boolean> _is_worker_thread = new ThreadLocal<>();
+    private final ExecutorService _threads;
+}
@@ -8,22 +8,44 @@
  *******************************************************************************/
 package com.imminentmeals.android.base.utilities.database;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.BaseColumns;
 
 import com.google.common.io.Closeables;
 
 import java.io.IOException;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import static com.google.common.collect.Lists.partition;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+
 
 /**
  * <p>Base ActiveRecord implementation.</p>
+ *
+ * <p>Records that mark their changed columns with {@link #markDirty(int)} (or {@link #makeDirty(boolean)}) only
+ * write those columns when updated, and skip the update entirely when nothing has changed. Records that never
+ * mark a column keep writing every column on update.</p>
  */
 @ParametersAreNonnullByDefault
 public abstract class ActiveRecord {
@@ -46,10 +68,79 @@ public abstract class ActiveRecord {
 
     protected abstract ContentResolver getContentResolver();
 
-    public abstract void makeDirty(boolean dirty_record);
+    /**
+     * <p>Marks every column of the {@link #projection()} as dirty, or clears all the dirty columns.</p>
+     * @param dirty_record indicates that the whole record should be written on the next {@link #save()}
+     */
+    @OverridingMethodsMustInvokeSuper
+    public void makeDirty(boolean dirty_record) {
+        if (dirty_record) {
+            _is_tracking_dirty_columns = true;
+            _dirty_columns.set(0, projection().length);
+        } else {
+            _dirty_columns.clear();
+            _marked_columns.clear();
+        }
+    }
+
+    /**
+     * <p>Determines if any column has been marked dirty since the record was last saved or reloaded.</p>
+     * @return {@code true} indicates that the next {@link #save()} will write to the content provider
+     */
+    public boolean isDirty() {
+        return _id == 0 || !_is_tracking_dirty_columns || !_dirty_columns.isEmpty();
+    }
 
     protected abstract void setPropertiesFromCursor(Cursor cursor);
 
+    /**
+     * <p>Columns too heavy to select with the rest of the record, such as large TEXT or BLOB columns. When the record
+     * is created from the {@linkplain ActiveRecordFactory.Profile#LIGHT light projection} they are only loaded on
+     * first access, see {@link #loadLazyColumns()}. None by default.</p>
+     * @return the lazily loaded columns
+     */
+    protected String[] lazyColumns() {
+        return _NO_COLUMNS;
+    }
+
+    /**
+     * <p>Sets the properties of the {@link #lazyColumns()} from the given cursor, which is projected onto the
+     * {@link #lazyColumns()}, in order.</p>
+     * @param cursor the given cursor
+     */
+    @SuppressWarnings("UnusedParameters")
+    protected void setLazyPropertiesFromCursor(Cursor cursor) { }
+
+    /**
+     * <p>Determines if the properties of the {@link #lazyColumns()} hold the stored values.</p>
+     * @return {@code true} indicates that the lazy columns have been loaded
+     */
+    public boolean areLazyColumnsLoaded() {
+        return _are_lazy_columns_loaded;
+    }
+
+    /**
+     * <p>Loads the {@link #lazyColumns()} by <b>id</b>, if they haven't been loaded yet. Meant to be called from the
+     * getters of the lazily loaded properties. Loading doesn't make the record dirty.</p>
+     */
+    protected final void loadLazyColumns() {
+        if (_are_lazy_columns_loaded || _id == 0) return;
+
+        Cursor cursor = null;
+        try {
+            cursor = getContentResolver().query(ContentUris.withAppendedId(_content_uri, _id), lazyColumns(),
+                    null, null, null);
+
+            if (cursor != null && cursor.moveToFirst())
+                setLazyPropertiesFromCursorKeepingDirt(cursor);
+            _are_lazy_columns_loaded = true;
+        } finally {
+            try {
+                Closeables.close(cursor, true);
+            } catch (IOException _) { }
+        }
+    }
+
     /**
      * <p>If the <b>id</b> column for this record is zero, then saving will cause
      * an insert, after saving the <b>id</b> will be set with the new id of the inserted record,
@@ -60,14 +151,22 @@ public abstract class ActiveRecord {
      * will also be updated
      */
     public long save(){
+        if (!isDirty()) return _id;
+        if (!hasColumnsToWrite()) {
+            // Dirty only in lazy columns that weren't loaded
+            makeClean();
+            return _id;
+        }
+
         final ValuesBuilder builder = createBuilder();
 
-        if(_id > 0)
+        if(_id > 0) {
+            builder.retainColumns(columnsToWrite());
             builder.update(_id);
-        else
+        } else
             _id = ContentUris.parseId(builder.insert());
 
-        makeDirty(false);
+        makeClean();
 
         return _id;
     }
@@ -80,14 +179,22 @@ public abstract class ActiveRecord {
      * will also be updated
      */
     public long save(boolean notify_change){
+        if (!isDirty()) return _id;
+        if (!hasColumnsToWrite()) {
+            // Dirty only in lazy columns that weren't loaded
+            makeClean();
+            return _id;
+        }
+
         final ValuesBuilder builder = createBuilder();
 
-        if(_id > 0)
+        if(_id > 0) {
+            builder.retainColumns(columnsToWrite());
             builder.update(_id, notify_change);
-        else
+        } else
             _id = ContentUris.parseId(builder.insert(notify_change, false));
 
-        makeDirty(false);
+        makeClean();
 
         return _id;
     }
@@ -97,7 +204,7 @@ public abstract class ActiveRecord {
                 _content_uri.buildUpon()
                             .appendPath(Long.toString(_id)).build(), null, null) > 0;
 
-        makeDirty(false);
+        makeClean();
 
         return result;
     }
@@ -111,7 +218,7 @@ public abstract class ActiveRecord {
 
         final boolean result = getContentResolver().delete(uri, null, null) > 0;
 
-        makeDirty(false);
+        makeClean();
 
         return result;
     }
@@ -128,7 +235,8 @@ public abstract class ActiveRecord {
 
             if(cursor.moveToFirst()) {
                 setPropertiesFromCursor(cursor);
-                makeDirty(false);
+                _are_lazy_columns_loaded = true;
+                makeClean();
             }
         } finally {
             try {
@@ -137,10 +245,308 @@ public abstract class ActiveRecord {
         }
     }
 
+    /**
+     * <p>Saves the given records in one {@link ContentResolver#applyBatch(String, java.util.ArrayList) batch} per
+     * authority, instead of a round trip per record. Inserted records have their <b>id</b> set to the id of the new
+     * row, and observers are notified once per content URI, instead of once per record.</p>
+     * @param records the records to save
+     * @throws RemoteException Indicates the content provider's process died
+     * @throws OperationApplicationException Indicates one of the writes failed, which rolls back its batch
+     */
+    public static void saveAll(Collection<? extends ActiveRecord> records)
+            throws RemoteException, OperationApplicationException {
+        if (records.isEmpty()) return;
+
+        final Map<String, ArrayList<ContentProviderOperation>> batches = newHashMap();
+        final Map<String, List<ActiveRecord>> batched_records = newHashMap();
+        final Set<Uri> changed_uris = newHashSet();
+        for (ActiveRecord record : records) {
+            if (!record.isDirty()) continue;
+            if (!record.hasColumnsToWrite()) {
+                record.makeClean();
+                continue;
+            }
+
+            final String authority = record._content_uri.getAuthority();
+            if (!batches.containsKey(authority)) {
+                batches.put(authority, new ArrayList<ContentProviderOperation>());
+                batched_records.put(authority, new ArrayList<ActiveRecord>());
+            }
+            batches.get(authority).add(record.saveOperation());
+            batched_records.get(authority).add(record);
+            changed_uris.add(record._content_uri);
+        }
+
+        final ContentResolver resolver = records.iterator().next().getContentResolver();
+        for (Map.Entry<String, ArrayList<ContentProviderOperation>> batch : batches.entrySet()) {
+            final ContentProviderResult[] results = resolver.applyBatch(batch.getKey(), batch.getValue());
+            final List<ActiveRecord> saved_records = batched_records.get(batch.getKey());
+            for (int i = 0; i < results.length; i++) {
+                final ActiveRecord record = saved_records.get(i);
+                if (record._id == 0 && results[i].uri != null)
+                    record._id = ContentUris.parseId(results[i].uri);
+                record.makeClean();
+            }
+        }
+
+        for (Uri uri : changed_uris)
+            resolver.notifyChange(uri, null, false);
+    }
+
+    /**
+     * <p>Deletes the given records in one {@link ContentResolver#applyBatch(String, java.util.ArrayList) batch} per
+     * authority, collapsing the records of each content URI into {@code _id IN (...)} deletes of at most
+     * {@value #_MAX_ID_ARGUMENTS} records. Observers are notified once per content URI. Records that were never
+     * saved are ignored.</p>
+     * @param records the records to delete
+     * @return the number of rows deleted
+     * @throws RemoteException Indicates the content provider's process died
+     * @throws OperationApplicationException Indicates one of the deletes failed, which rolls back its batch
+     */
+    public static int deleteAll(Collection<? extends ActiveRecord> records)
+            throws RemoteException, OperationApplicationException {
+        if (records.isEmpty()) return 0;
+
+        final Map<Uri, List<ActiveRecord>> records_by_uri = newHashMap();
+        for (ActiveRecord record : records) {
+            if (record._id == 0) continue;
+
+            if (!records_by_uri.containsKey(record._content_uri))
+                records_by_uri.put(record._content_uri, new ArrayList<ActiveRecord>());
+            records_by_uri.get(record._content_uri).add(record);
+        }
+
+        final Map<String, ArrayList<ContentProviderOperation>> batches = newHashMap();
+        for (Map.Entry<Uri, List<ActiveRecord>> content : records_by_uri.entrySet()) {
+            final String authority = content.getKey().getAuthority();
+            if (!batches.containsKey(authority))
+                batches.put(authority, new ArrayList<ContentProviderOperation>());
+
+            final Uri uri = content.getKey().buildUpon()
+                    .appendQueryParameter(BaseContentProvider.PARAM_SHOULD_NOTIFY, Boolean.toString(false))
+                    .build();
+            for (List<ActiveRecord> chunk : partition(content.getValue(), _MAX_ID_ARGUMENTS))
+                batches.get(authority).add(ContentProviderOperation.newDelete(uri)
+                        .withSelection(idSelection(chunk.size()), idArguments(chunk))
+                        .build());
+        }
+
+        final ContentResolver resolver = records.iterator().next().getContentResolver();
+        int count = 0;
+        for (Map.Entry<String, ArrayList<ContentProviderOperation>> batch : batches.entrySet())
+            for (ContentProviderResult result : resolver.applyBatch(batch.getKey(), batch.getValue()))
+                if (result.count != null) count += result.count;
+
+        for (Map.Entry<Uri, List<ActiveRecord>> content : records_by_uri.entrySet()) {
+            for (ActiveRecord record : content.getValue())
+                record.makeClean();
+            resolver.notifyChange(content.getKey(), null, false);
+        }
+
+        return count;
+    }
+
+    /**
+     * <p>Loads the {@link #lazyColumns()} of the given records that haven't loaded them yet, with one
+     * {@code _id IN (...)} query per content URI and chunk of {@value #_MAX_ID_ARGUMENTS} records, instead of a
+     * query per record. Used to prefetch the lazy columns while iterating.</p>
+     * @param records the given records
+     */
+    public static void loadLazyColumns(Collection<? extends ActiveRecord> records) {
+        final Map<Uri, List<ActiveRecord>> records_by_uri = newHashMap();
+        for (ActiveRecord record : records) {
+            if (record._are_lazy_columns_loaded || record._id == 0) continue;
+
+            if (!records_by_uri.containsKey(record._content_uri))
+                records_by_uri.put(record._content_uri, new ArrayList<ActiveRecord>());
+            records_by_uri.get(record._content_uri).add(record);
+        }
+
+        for (List<ActiveRecord> content : records_by_uri.values())
+            for (List<ActiveRecord> chunk : partition(content, _MAX_ID_ARGUMENTS)) {
+                final ActiveRecord first_record = chunk.get(0);
+                // Projects the id last, so that the lazy columns keep their positions
+                final String[] lazy_columns = first_record.lazyColumns();
+                final String[] projection = Arrays.copyOf(lazy_columns, lazy_columns.length + 1);
+                projection[lazy_columns.length] = BaseColumns._ID;
+
+                final Map<Long, ActiveRecord> records_by_id = newHashMap();
+                for (ActiveRecord record : chunk)
+                    records_by_id.put(record._id, record);
+
+                Cursor cursor = null;
+                try {
+                    cursor = first_record.getContentResolver().query(first_record._content_uri, projection,
+                            idSelection(chunk.size()), idArguments(chunk), null);
+
+                    while (cursor != null && cursor.moveToNext()) {
+                        final ActiveRecord record = records_by_id.get(cursor.getLong(lazy_columns.length));
+                        if (record != null) record.setLazyPropertiesFromCursorKeepingDirt(cursor);
+                    }
+                    for (ActiveRecord record : chunk)
+                        record._are_lazy_columns_loaded = true;
+                } finally {
+                    try {
+                        Closeables.close(cursor, true);
+                    } catch (IOException _) { }
+                }
+            }
+    }
+
     protected static boolean booleanFromInt(int value) {
         return value != 0;
     }
 
+    /**
+     * <p>Marks the given column as changed, so that it is written on the next {@link #save()}. Meant to be
+     * called from the record's setters.</p>
+     * @param column the index of the column in the {@link #projection()}
+     */
+    protected final void markDirty(@Nonnegative int column) {
+        _is_tracking_dirty_columns = true;
+        _dirty_columns.set(column);
+        _marked_columns.set(column);
+    }
+
+    /**
+     * <p>Determines if the given column has been marked dirty.</p>
+     * @param column the index of the column in the {@link #projection()}
+     * @return {@code true} indicates that the column will be written on the next {@link #save()}
+     */
+    protected final boolean isDirty(@Nonnegative int column) {
+        return _dirty_columns.get(column);
+    }
+
+    /**
+     * <p>Retrieves the names of the dirty columns.</p>
+     * @return the names of the dirty columns, or {@code null} if the record doesn't track its dirty columns
+     */
+    @CheckForNull private Set<String> dirtyColumns() {
+        if (!_is_tracking_dirty_columns) return null;
+
+        final String[] projection = projection();
+        final Set<String> columns = newHashSet();
+        for (int i = _dirty_columns.nextSetBit(0); i >= 0 && i < projection.length; i = _dirty_columns.nextSetBit(i + 1))
+            columns.add(projection[i]);
+        return columns;
+    }
+
+    /**
+     * <p>Retrieves the columns to write on update: the dirty columns, or every column when the record doesn't track
+     * its dirty columns, but never the {@link #lazyColumns()} that haven't been loaded, unless they were set with
+     * {@link #markDirty(int)}.</p>
+     * @return the columns to write, or {@code null} to write every value
+     */
+    @CheckForNull private Set<String> columnsToWrite() {
+        final Set<String> dirty_columns = dirtyColumns();
+        if (_are_lazy_columns_loaded) return dirty_columns;
+
+        // Unloaded lazy columns hold nulls rather than the stored values, even when marked dirty by makeDirty(true)
+        final Set<String> columns = dirty_columns == null? newHashSet(projection()) : dirty_columns;
+        final List<String> projection = Arrays.asList(projection());
+        for (String lazy_column : lazyColumns()) {
+            final int column = projection.indexOf(lazy_column);
+            if (column < 0 || !_marked_columns.get(column)) columns.remove(lazy_column);
+        }
+        return columns;
+    }
+
+    /**
+     * <p>Determines if {@link #save()} has anything to write: the record is dirty, and, when updated, not only in
+     * lazy columns that haven't been loaded.</p>
+     * @return {@code true} indicates that the record should be written
+     */
+    private boolean hasColumnsToWrite() {
+        if (!isDirty()) return false;
+        if (_id == 0) return true;
+        final Set<String> columns = columnsToWrite();
+        return columns == null || !columns.isEmpty();
+    }
+
+    /**
+     * <p>Calls {@link #setLazyPropertiesFromCursor(android.database.Cursor)} without letting the setters it calls
+     * mark columns dirty.</p>
+     * @param cursor the cursor projected onto the {@link #lazyColumns()}
+     */
+    private void setLazyPropertiesFromCursorKeepingDirt(Cursor cursor) {
+        final BitSet dirty_columns = (BitSet) _dirty_columns.clone();
+        final BitSet marked_columns = (BitSet) _marked_columns.clone();
+        final boolean is_tracking_dirty_columns = _is_tracking_dirty_columns;
+        setLazyPropertiesFromCursor(cursor);
+        _dirty_columns.clear();
+        _dirty_columns.or(dirty_columns);
+        _marked_columns.clear();
+        _marked_columns.or(marked_columns);
+        _is_tracking_dirty_columns = is_tracking_dirty_columns;
+    }
+
+    /**
+     * <p>Marks the {@link #lazyColumns()} as not loaded, used when the record is created from the
+     * {@linkplain ActiveRecordFactory.Profile#LIGHT light projection}.</p>
+     */
+    /* package */void unloadLazyColumns() {
+        _are_lazy_columns_loaded = lazyColumns().length == 0;
+    }
+
+    /**
+     * <p>Constructs the selection of the given number of ids.</p>
+     * @param count the number of ids
+     * @return {@code _id IN (?,...)}
+     */
+    @Nonnull private static String idSelection(int count) {
+        final StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        for (int i = 0; i < count; i++)
+            selection.append(i == 0? "?" : ",?");
+        return selection.append(')').toString();
+    }
+
+    /**
+     * <p>Retrieves the ids of the given records as selection arguments.</p>
+     * @param records the given records
+     * @return the ids of the records
+     */
+    @Nonnull private static String[] idArguments(List<ActiveRecord> records) {
+        final String[] arguments = new String[records.size()];
+        for (int i = 0; i < arguments.length; i++)
+            arguments[i] = Long.toString(records.get(i)._id);
+        return arguments;
+    }
+
+    /**
+     * <p>Creates the insert or update operation that {@link #save()} would perform, without notifying observers.</p>
+     * @return the operation that saves the record
+     */
+    @Nonnull private ContentProviderOperation saveOperation() {
+        final ValuesBuilder builder = createBuilder();
+        builder.appendQueryParameter(BaseContentProvider.PARAM_SHOULD_NOTIFY, Boolean.toString(false));
+
+        if (_id > 0) {
+            builder.retainColumns(columnsToWrite());
+            return builder.toUpdateOperationBuilder(ContentUris.withAppendedId(_content_uri, _id)).build();
+        }
+        return builder.toInsertOperationBuilder(_content_uri).build();
+    }
+
+    /**
+     * <p>Clears the dirty columns, even when a subclass's {@link #makeDirty(boolean)} doesn't call through.</p>
+     */
+    private void makeClean() {
+        makeDirty(false);
+        _dirty_columns.clear();
+        _marked_columns.clear();
+    }
+
+    /** Maximum number of ids bound in a single statement, below SQLite's limit of 999 bound arguments */
+    private static final int _MAX_ID_ARGUMENTS = 500;
+    private static final String[] _NO_COLUMNS = new String[0];
     protected final @Nonnull Uri _content_uri;
     private long _id;
+    /** Columns, by index in the {@link #projection()}, changed since the last save or reload */
+    private final BitSet _dirty_columns = new BitSet();
+    /** Dirty columns marked one at a time by {@link #markDirty(int)}, rather than by {@link #makeDirty(boolean)} */
+    private final BitSet _marked_columns = new BitSet();
+    /** Indicates that the record marks its dirty columns, which enables partial updates */
+    private boolean _is_tracking_dirty_columns;
+    /** Indicates that the properties of the {@link #lazyColumns()} hold the stored values */
+    private boolean _are_lazy_columns_loaded = true;
 }
@@ -10,9 +10,53 @@ package com.imminentmeals.android.base.utilities.database;
 
 import android.database.Cursor;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 public abstract class ActiveRecordFactory<T extends ActiveRecord> {
+
+    /**
+     * <p>Selects which columns are projected when records are created.</p>
+     */
+    public static enum Profile {
+        /** Every column of the {@linkplain #projection() projection} */
+        FULL,
+        /** The {@linkplain #lightProjection() light projection}, the {@link ActiveRecord#lazyColumns()} are loaded
+         * on first access */
+        LIGHT
+    }
+
     public abstract T create(@Nonnull Cursor cursor);
     public abstract String[] projection();
+
+    /**
+     * <p>The projection without the heavy columns, which the records load lazily. Note that
+     * {@link #create(android.database.Cursor)} must then handle cursors over either projection, for example by
+     * looking up columns by name. By default the same as the {@link #projection()}.</p>
+     * @return the light projection
+     */
+    public String[] lightProjection() {
+        return projection();
+    }
+
+    /**
+     * <p>Retrieves the projection for the given profile.</p>
+     * @param profile the given profile
+     * @return the projection
+     */
+    @Nonnull public String[] projection(Profile profile) {
+        return profile == Profile.LIGHT? lightProjection() : projection();
+    }
+
+    /**
+     * <p>Creates the record from a cursor projected onto the {@link #projection(Profile)} of the given profile.</p>
+     * @param cursor the given cursor
+     * @param profile the given profile
+     * @return the record, or {@code null} if one couldn't be created
+     */
+    @CheckForNull public T create(@Nonnull Cursor cursor, @Nonnull Profile profile) {
+        final T record = create(cursor);
+        if (record != null && profile == Profile.LIGHT) record.unloadLazyColumns();
+        return record;
+    }
 }
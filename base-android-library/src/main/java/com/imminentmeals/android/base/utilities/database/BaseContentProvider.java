@@ -9,16 +9,29 @@
 package com.imminentmeals.android.base.utilities.database;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import static com.google.common.collect.Sets.newHashSet;
+
 
 /**
  * <p>Base {@link android.content.ContentProvider} implementation.</p>
@@ -29,6 +42,10 @@ public abstract class BaseContentProvider extends ContentProvider {
     /** Parameter indicating that the {@link android.content.ContentProvider} should notify observers that the content has been updated */
     public static final String PARAM_SHOULD_NOTIFY = "com.imminentmeals.android.base.param.BaseContentProvider.SHOULD_NOTIFY";
     public static final String PARAM_SHOULD_NOTIFY_SYNC_ADAPTER = "com.imminentmeals.android.base.param.BaseContentProvider.SHOULD_NOTIFY_SYN_ADAPTER";
+    /** Parameter naming the {@link ActiveRecordFactory.Profile} with which to project the selected records */
+    public static final String PARAM_PROJECTION_PROFILE = "com.imminentmeals.android.base.param.BaseContentProvider.PROJECTION_PROFILE";
+    /** Parameter limiting the result to the given number of first rows, such as for a list's first paint */
+    public static final String PARAM_LIMIT = "com.imminentmeals.android.base.param.BaseContentProvider.LIMIT";
 
 
     @Override
@@ -42,6 +59,61 @@ public abstract class BaseContentProvider extends ContentProvider {
         return _database_helper;
     }
 
+    /**
+     * <p>Applies the batch of operations in a single transaction, so that they are all written together or none
+     * are.</p>
+     * @param operations the operations to apply
+     * @return the results of the operations
+     * @throws OperationApplicationException Indicates an operation failed, which rolls back the whole batch
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase database = _database_helper.getWritableDatabase();
+        if (database == null) return super.applyBatch(operations);
+
+        database.beginTransaction();
+        try {
+            final ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            return results;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * <p>Schedules the deletion of the {@link BlobStore} blobs no longer referenced by any of the
+     * {@link #externalBlobColumns()}. Called after rows are deleted; requests made while a collection is pending are
+     * coalesced into it.</p>
+     */
+    public void collectBlobGarbage() {
+        if (externalBlobColumns().isEmpty() || !_is_blob_collection_pending.compareAndSet(false, true)) return;
+
+        _BLOB_COLLECTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                _is_blob_collection_pending.set(false);
+                final SQLiteDatabase database = _database_helper.getReadableDatabase();
+                if (database == null) return;
+
+                final Set<String> referenced_hashes = newHashSet();
+                for (Map.Entry<String, String[]> table : externalBlobColumns().entrySet())
+                    for (String column : table.getValue()) {
+                        final Cursor cursor = database.query(true, table.getKey(), new String[] { column },
+                                "typeof(" + column + ") = 'text'", null, null, null, null, null);
+                        try {
+                            while (cursor.moveToNext())
+                                referenced_hashes.add(cursor.getString(0));
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                new BlobStore(getContext()).retainAll(referenced_hashes);
+            }
+        });
+    }
+
     @SuppressWarnings("UnusedParameters")
     @CheckForNull public <T extends ActiveRecord> List<T> selectRecords(Uri uri, QueryBuilder query,
                                                                         @Nullable String sort_order) {
@@ -58,6 +130,16 @@ public abstract class BaseContentProvider extends ContentProvider {
 
     protected abstract BaseSqliteOpenHelper createOpenHelper(Context context);
 
+    /**
+     * <p>The columns, by table, whose blobs may be kept in the {@link BlobStore}, see
+     * {@link ValuesBuilder#putBlob(String, byte[])}. Used to find the blobs still referenced when collecting garbage.
+     * None by default.</p>
+     * @return the columns by table
+     */
+    protected Map<String, String[]> externalBlobColumns() {
+        return Collections.emptyMap();
+    }
+
     /**
      * Notifies a change (invokes {@link android.content.ContentResolver#notifyChange(android.net.Uri, android.database.ContentObserver)
      * if {@link #PARAM_SHOULD_NOTIFY} parameter is not present in the given Uri, or, if it
@@ -92,5 +174,9 @@ public abstract class BaseContentProvider extends ContentProvider {
             cursor.setNotificationUri(getContext().getContentResolver(), uri);
     }
 
+    /** Collects the {@link BlobStore} garbage in the background, one collection at a time */
+    private static final ExecutorService _BLOB_COLLECTOR = Executors.newSingleThreadExecutor();
     private BaseSqliteOpenHelper _database_helper;
+    /** Indicates that a {@link #collectBlobGarbage()} is waiting to run */
+    private final AtomicBoolean _is_blob_collection_pending = new AtomicBoolean();
 }
@@ -9,21 +9,118 @@
 package com.imminentmeals.android.base.utilities.database;
 
 import android.content.Context;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import static com.google.common.collect.Lists.newArrayList;
+import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGE;
+
 /**
  * <p>Base {@link android.database.sqlite.SQLiteOpenHelper}.</p>
+ *
+ * <p>Each helper registers itself so that all of them can be {@linkplain #warmUpAll() warmed up} in the background at
+ * application start, see {@link com.imminentmeals.android.base.BaseAndroidLibraryApplication#shouldWarmUpDatabases()}.
+ * </p>
  */
 @ParametersAreNonnullByDefault
 public abstract class BaseSqliteOpenHelper extends SQLiteOpenHelper {
 
-    public BaseSqliteOpenHelper(Context context, String name, CursorFactory factory, int version) {
+    public BaseSqliteOpenHelper(Context context, String name, @Nullable CursorFactory factory, int version) {
         super(context, name, factory, version);
         _version = version;
+        _cursor_factory = factory;
+        _HELPERS.add(this);
+    }
+
+    /**
+     * <p>Constructs the helper with the default cursors. To log how many rows, and about how much memory, each query
+     * fills into its {@link android.database.CursorWindow}, pass a {@link MeasuringCursorFactory} instead, such as in
+     * debug builds.</p>
+     * @param context the context in which to open the database
+     * @param name the name of the database file
+     * @param version the version number of the database
+     */
+    public BaseSqliteOpenHelper(Context context, String name, int version) {
+        this(context, name, null, version);
+    }
+
+    /**
+     * <p>Retrieves the factory that creates the cursors of the database.</p>
+     * @return the factory, or {@code null} if the default cursors are created
+     */
+    @CheckForNull public CursorFactory cursorFactory() {
+        return _cursor_factory;
+    }
+
+    /**
+     * <p>Retrieves the factory that creates the cursors of the given database, so that queries that pass their own
+     * factory to {@link SQLiteDatabase#rawQueryWithFactory(CursorFactory, String, String[], String)} can still create
+     * the database's cursors.</p>
+     * @param database the given database
+     * @return the factory of the helper that opened the database, or {@code null} if the default cursors are created
+     */
+    @CheckForNull public static CursorFactory cursorFactory(SQLiteDatabase database) {
+        return _CURSOR_FACTORIES.get(database);
+    }
+
+    /**
+     * <p>Enables {@linkplain SqliteMigration#enableRecursiveTriggers(SQLiteDatabase) recursive triggers}, and
+     * write-ahead logging when {@link #shouldEnableWriteAheadLogging()}.</p>
+     * @param database the database
+     */
+    @Override
+    public void onOpen(SQLiteDatabase database) {
+        super.onOpen(database);
+        registerCursorFactory(database);
+        SqliteMigration.enableRecursiveTriggers(database);
+        if (shouldEnableWriteAheadLogging() && !database.isReadOnly())
+            database.enableWriteAheadLogging();
+    }
+
+    /**
+     * <p>Opens the database, running any pending migrations, and compiles the {@link #hotQueries()}, so that the first
+     * query doesn't pay for them. Callers of {@link #getWritableDatabase()} or {@link #getReadableDatabase()} wait
+     * for the warm-up to finish rather than repeating its work.</p>
+     */
+    public synchronized void warmUp() {
+        final SQLiteDatabase database;
+        try {
+            database = getWritableDatabase();
+        } catch (SQLException error) {
+            AUTOTAGLOGE(error, "Unable to open %s", getDatabaseName());
+            return;
+        }
+
+        for (String query : hotQueries())
+            try {
+                database.compileStatement(query).close();
+            } catch (SQLException error) {
+                AUTOTAGLOGE(error, "Unable to compile %s", query);
+            }
+    }
+
+    /**
+     * <p>{@linkplain #warmUp() Warms up} each helper that has been constructed, on the calling thread.</p>
+     */
+    public static void warmUpAll() {
+        final List<BaseSqliteOpenHelper> helpers;
+        synchronized (_HELPERS) {
+            helpers = newArrayList(_HELPERS);
+        }
+        for (BaseSqliteOpenHelper helper : helpers)
+            helper.warmUp();
     }
 
     @Override
@@ -39,6 +136,8 @@ public abstract class BaseSqliteOpenHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase database, int old_version, int new_version) {
+        // Migrations run before the database is opened
+        registerCursorFactory(database);
         for (int i = (old_version + 1); i <= new_version; i++)
             createMigration(i).up(database);
     }
@@ -50,5 +149,36 @@ public abstract class BaseSqliteOpenHelper extends SQLiteOpenHelper {
      */
     protected abstract SqliteMigration createMigration(int version);
 
+    /**
+     * <p>Indicates that the database should use write-ahead logging, which lets reads run in parallel with each other
+     * and with a write, such as the queries of a {@link QueryBatch}. Disabled by default.</p>
+     * @return {@code true} indicates that write-ahead logging should be enabled
+     */
+    protected boolean shouldEnableWriteAheadLogging() {
+        return false;
+    }
+
+    /**
+     * <p>The queries to compile during {@link #warmUp()}, so that their statements, and the schema, are ready for
+     * their first use. None by default.</p>
+     * @return the SQL of the queries
+     */
+    protected List<String> hotQueries() {
+        return Collections.emptyList();
+    }
+
+/* Private helper methods */
+    private void registerCursorFactory(SQLiteDatabase database) {
+        if (_cursor_factory != null) _CURSOR_FACTORIES.put(database, _cursor_factory);
+    }
+
+    /** The helpers that have been constructed */
+    private static final Set<BaseSqliteOpenHelper> _HELPERS =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<BaseSqliteOpenHelper, Boolean>()));
+    /** The factories of the {@link #cursorFactory() helpers} that opened each database */
+    private static final Map<SQLiteDatabase, CursorFactory> _CURSOR_FACTORIES =
+            Collections.synchronizedMap(new WeakHashMap<SQLiteDatabase, CursorFactory>());
     private int _version;
+    /** Creates the cursors of the database */
+    private final CursorFactory _cursor_factory;
 }
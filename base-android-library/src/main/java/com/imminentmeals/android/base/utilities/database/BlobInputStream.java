@@ -0,0 +1,174 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+import com.google.common.io.Closeables;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * <p>Reads a blob column of a single row in chunks of {@value #_CHUNK_SIZE} bytes, using {@code substr()}, so that
+ * blobs near or over the {@link android.database.CursorWindow} limit can be read without holding them in memory.</p>
+ *
+ * <p>Blobs kept in the {@link BlobStore} are read from their file instead, see {@link #open(ContentResolver,
+ * BlobStore, Uri, String, String, String[])}.</p>
+ *
+ * @see QueryBuilder#blobStream(android.net.Uri, String)
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public class BlobInputStream extends InputStream {
+
+    /**
+     * <p>Opens a stream over the blob in the given column of the first row that matches the given selection. When the
+     * column holds a {@linkplain BlobStore#isReference(String) reference} to a blob kept in the given store, the
+     * stream reads the stored file.</p>
+     * @param content the content resolver through which to query
+     * @param blob_store the store that keeps the blobs too large for the database
+     * @param uri the URI over which to query
+     * @param column the blob column
+     * @param selection the given selection
+     * @param selection_arguments the given selection arguments
+     * @return a stream over the blob, or {@code null} if no row matches or the blob is {@code null}
+     * @throws IOException Indicates the column holds TEXT that isn't a blob reference, or the referenced blob is
+     *         missing
+     */
+    @CheckForNull public static InputStream open(ContentResolver content, BlobStore blob_store, Uri uri, String column,
+                                                 @Nullable String selection, @Nullable String[] selection_arguments)
+            throws IOException {
+        Cursor cursor = null;
+        try {
+            // Only TEXT is read whole, since inline blobs are what this stream reads in chunks
+            cursor = content.query(uri, new String[] { BaseColumns._ID, "length(" + column + ")",
+                            "CASE typeof(" + column + ") WHEN 'text' THEN " + column + " END" },
+                    selection, selection_arguments, null);
+
+            if (cursor == null || !cursor.moveToFirst() || cursor.isNull(1)) return null;
+            if (!cursor.isNull(2)) {
+                final String hash = cursor.getString(2);
+                if (!BlobStore.isReference(hash))
+                    throw new IOException("Value of " + column + " isn't a blob reference.");
+                return blob_store.open(hash);
+            }
+            return new BlobInputStream(content, uri, column, cursor.getLong(0), cursor.getLong(1));
+        } finally {
+            //noinspection EmptyCatchBlock
+            try {
+                Closeables.close(cursor, true);
+            } catch (IOException _) { }
+        }
+    }
+
+    private BlobInputStream(ContentResolver content, Uri uri, String column, long id, @Nonnegative long length) {
+        _content = content;
+        _uri = uri;
+        _column = column;
+        _id_argument = new String[] { Long.toString(id) };
+        _length = length;
+    }
+
+    /**
+     * <p>Retrieves the length of the blob.</p>
+     * @return the number of bytes in the blob
+     */
+    @Nonnegative public long length() {
+        return _length;
+    }
+
+/* InputStream contract */
+    @Override
+    public int read() throws IOException {
+        if (!fillChunkIfNeeded()) return -1;
+        return _chunk[_chunk_position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) return 0;
+        if (!fillChunkIfNeeded()) return -1;
+
+        final int read = Math.min(count, _chunk.length - _chunk_position);
+        System.arraycopy(_chunk, _chunk_position, buffer, offset, read);
+        _chunk_position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        if (count <= 0) return 0;
+
+        // Drops the current chunk and moves the next read past the skipped bytes
+        final long remaining_in_chunk = _chunk == null? 0 : _chunk.length - _chunk_position;
+        final long position = _position - remaining_in_chunk;
+        final long skipped = Math.min(count, _length - position);
+        _position = position + skipped;
+        _chunk = null;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return _chunk == null? 0 : _chunk.length - _chunk_position;
+    }
+
+    @Override
+    public void close() {
+        _chunk = null;
+        _position = _length;
+    }
+
+/* Private helper methods */
+    /**
+     * <p>Queries the next chunk of the blob when the current one has been read.</p>
+     * @return {@code true} indicates that there are bytes left to read
+     * @throws IOException Indicates the row changed or disappeared while reading
+     */
+    private boolean fillChunkIfNeeded() throws IOException {
+        if (_chunk != null && _chunk_position < _chunk.length) return true;
+        if (_position >= _length) return false;
+
+        Cursor cursor = null;
+        try {
+            // SQLite's substr() is 1-indexed and counts bytes for blobs
+            cursor = _content.query(_uri,
+                    new String[] { "substr(" + _column + ", " + (_position + 1) + ", " + _CHUNK_SIZE + ")" },
+                    BaseColumns._ID + " = ?", _id_argument, null);
+
+            final byte[] chunk = cursor != null && cursor.moveToFirst()? cursor.getBlob(0) : null;
+            if (chunk == null || chunk.length == 0)
+                throw new IOException("Blob in " + _column + " changed while it was being read.");
+            _chunk = chunk;
+            _chunk_position = 0;
+            _position += chunk.length;
+            return true;
+        } finally {
+            //noinspection EmptyCatchBlock
+            try {
+                Closeables.close(cursor, true);
+            } catch (IOException _) { }
+        }
+    }
+
+    /** Number of bytes read per query, well below the {@link android.database.CursorWindow} size */
+    private static final int _CHUNK_SIZE = 256 * 1024;
+    private final ContentResolver _content;
+    private final Uri _uri;
+    private final String _column;
+    /** Selects the row of the blob by id */
+    private final String[] _id_argument;
+    /** Number of bytes in the blob */
+    private final long _length;
+    /** Position in the blob of the byte after the current chunk */
+    private long _position;
+    private byte[] _chunk;
+    private int _chunk_position;
+}
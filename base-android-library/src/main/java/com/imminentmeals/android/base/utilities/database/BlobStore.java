@@ -0,0 +1,278 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.google.common.io.Closeables;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static com.google.common.io.BaseEncoding.base16;
+
+/**
+ * <p>Content-addressed file store for blobs too large to keep in the database. Each blob is written once to a file
+ * named by the SHA-256 hash of its content, under the app's files directory, and the row keeps only that hash.
+ * Reads map the file into memory instead of copying it onto the heap.</p>
+ *
+ * <p>Rows reference stored blobs with a TEXT value (the hash), while inline blobs remain BLOB values, see
+ * {@link #blobFromCursor(android.database.Cursor, int)}.</p>
+ *
+ * <p>Storing a blob that is already stored refreshes its modification time, under a lock shared with
+ * {@link #retainAll(java.util.Set)}, so a blob about to be referenced again is never collected in between. The lock
+ * is shared by every instance in the process, since stores are created wherever they're needed.</p>
+ *
+ * @see ValuesBuilder#putBlob(String, byte[])
+ * @see BaseContentProvider#externalBlobColumns()
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public class BlobStore {
+    /** Blobs larger than this number of bytes are kept in the {@link BlobStore} rather than the database */
+    public static final int EXTERNAL_BLOB_THRESHOLD = 100 * 1024;
+
+    public BlobStore(Context context) {
+        _directory = new File(context.getFilesDir(), _DIRECTORY);
+    }
+
+    /**
+     * <p>Stores the given blob, unless an identical blob is already stored.</p>
+     * @param blob the given blob
+     * @return the hash that references the blob
+     * @throws IOException Indicates the blob couldn't be written
+     */
+    @Nonnull public String put(byte[] blob) throws IOException {
+        final String hash = hash(blob);
+        final File file = file(hash);
+        if (touchIfStored(file)) return hash;
+
+        final File temporary_file = temporaryFile();
+        boolean threw = true;
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temporary_file);
+            output.write(blob);
+            output.getFD().sync();
+            threw = false;
+        } finally {
+            Closeables.close(output, true);
+            if (threw) {
+                //noinspection ResultOfMethodCallIgnored
+                temporary_file.delete();
+            }
+        }
+        moveIntoPlace(temporary_file, file);
+        return hash;
+    }
+
+    /**
+     * <p>Stores the blob read from the given stream, unless an identical blob is already stored. The blob is hashed
+     * while it is copied, so it is never held in memory.</p>
+     * @param input the given stream
+     * @return the hash that references the blob
+     * @throws IOException Indicates the blob couldn't be read or written
+     */
+    @Nonnull public String put(InputStream input) throws IOException {
+        final File temporary_file = temporaryFile();
+        final DigestInputStream digest_input = new DigestInputStream(input, digest());
+        boolean threw = true;
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temporary_file);
+            final byte[] buffer = new byte[_BUFFER_SIZE];
+            int n;
+            while ((n = digest_input.read(buffer)) != -1)
+                output.write(buffer, 0, n);
+            output.getFD().sync();
+            threw = false;
+        } finally {
+            Closeables.close(output, true);
+            if (threw) {
+                //noinspection ResultOfMethodCallIgnored
+                temporary_file.delete();
+            }
+        }
+
+        final String hash = base16().lowerCase().encode(digest_input.getMessageDigest().digest());
+        final File file = file(hash);
+        if (touchIfStored(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary_file.delete();
+            return hash;
+        }
+        moveIntoPlace(temporary_file, file);
+        return hash;
+    }
+
+    /**
+     * <p>Maps the blob referenced by the given hash into memory, read-only.</p>
+     * @param hash the hash that references the blob
+     * @return the mapped blob
+     * @throws IOException Indicates the blob is missing or couldn't be mapped
+     */
+    @Nonnull public ByteBuffer map(String hash) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(file(hash), "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            Closeables.close(file, true);
+        }
+    }
+
+    /**
+     * <p>Opens a stream over the blob referenced by the given hash.</p>
+     * @param hash the hash that references the blob
+     * @return the stream over the blob
+     * @throws IOException Indicates the blob is missing
+     */
+    @Nonnull public InputStream open(String hash) throws IOException {
+        return new FileInputStream(file(hash));
+    }
+
+    /**
+     * <p>Determines if the blob referenced by the given hash is stored.</p>
+     * @param hash the given hash
+     * @return {@code true} indicates the blob is stored
+     */
+    public boolean contains(String hash) {
+        return file(hash).exists();
+    }
+
+    /**
+     * <p>Determines if the given value is a hash that references a stored blob, rather than some other TEXT.</p>
+     * @param value the given value
+     * @return {@code true} indicates the value is a blob reference
+     */
+    public static boolean isReference(@Nullable String value) {
+        return value != null && _REFERENCE.matcher(value).matches();
+    }
+
+    /**
+     * <p>Reads the blob in the given column of the cursor's current row, whether it is stored inline or referenced
+     * by hash.</p>
+     * @param cursor the given cursor
+     * @param column the index of the column
+     * @return the blob, or {@code null} if the value is {@code null}
+     * @throws IOException Indicates the value is TEXT that isn't a {@linkplain #isReference(String) blob reference}, or
+     *         a referenced blob is missing or couldn't be mapped
+     */
+    @CheckForNull public ByteBuffer blobFromCursor(Cursor cursor, int column) throws IOException {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL: return null;
+            case Cursor.FIELD_TYPE_STRING:
+                final String hash = cursor.getString(column);
+                if (!isReference(hash))
+                    throw new IOException("Value of " + cursor.getColumnName(column) + " isn't a blob reference.");
+                return map(hash);
+            default: return ByteBuffer.wrap(cursor.getBlob(column));
+        }
+    }
+
+    /**
+     * <p>Deletes the stored blobs that aren't referenced by any of the given hashes. Blobs written within the last
+     * {@value #_GRACE_PERIOD_MILLISECONDS} milliseconds are kept, since the row that references them may not have
+     * been written yet. Temporary files left behind by writes that never finished are deleted the same way.</p>
+     * @param referenced_hashes the hashes still referenced by the database
+     * @return the number of blobs deleted
+     */
+    public int retainAll(Set<String> referenced_hashes) {
+        final File[] files = _directory.listFiles();
+        if (files == null) return 0;
+
+        final long cutoff = System.currentTimeMillis() - _GRACE_PERIOD_MILLISECONDS;
+        int count = 0;
+        for (File file : files)
+            if (!referenced_hashes.contains(file.getName()))
+                synchronized (_LOCK) {
+                    if (file.lastModified() < cutoff && file.delete()) count++;
+                }
+        return count;
+    }
+
+/* Private helper methods */
+    /**
+     * <p>Refreshes the modification time of the given blob file, if it's stored, so that
+     * {@link #retainAll(java.util.Set)} gives the row about to reference it the whole grace period.</p>
+     * @return {@code true} indicates the blob is stored
+     */
+    private static boolean touchIfStored(File file) {
+        synchronized (_LOCK) {
+            return file.exists() && (file.setLastModified(System.currentTimeMillis()) || file.exists());
+        }
+    }
+
+    /**
+     * <p>Locates the file of the blob referenced by the given hash.</p>
+     * @throws IllegalArgumentException Indicates the hash isn't a {@linkplain #isReference(String) blob reference},
+     *         which could otherwise name a file outside the store
+     */
+    @Nonnull private File file(String hash) {
+        if (!isReference(hash)) throw new IllegalArgumentException("Not a blob reference: " + hash);
+        return new File(_directory, hash);
+    }
+
+    /**
+     * <p>Creates a file to write a blob to before it's moved into place. It's in the store's directory, so that the
+     * move is a rename within one directory and {@link #retainAll(java.util.Set)} collects it if the write never
+     * finishes; its name can't be mistaken for a hash.</p>
+     */
+    @Nonnull private File temporaryFile() throws IOException {
+        if (!_directory.isDirectory() && !_directory.mkdirs())
+            throw new IOException("Unable to create " + _directory);
+        return File.createTempFile(_TEMPORARY_PREFIX, _TEMPORARY_SUFFIX, _directory);
+    }
+
+    private static void moveIntoPlace(File temporary_file, File file) throws IOException {
+        if (!temporary_file.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary_file.delete();
+            if (!file.exists()) throw new IOException("Unable to store " + file);
+        }
+    }
+
+    @Nonnull private static String hash(byte[] blob) {
+        return base16().lowerCase().encode(digest().digest(blob));
+    }
+
+    @Nonnull private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException error) {
+            // Every Android device provides SHA-256
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /** Name of the directory, under the files directory, that holds the blobs */
+    private static final String _DIRECTORY = "blobs";
+    /** Prefix of the files blobs are written to before they are moved into place */
+    private static final String _TEMPORARY_PREFIX = "blob";
+    private static final String _TEMPORARY_SUFFIX = ".tmp";
+    /** Age below which unreferenced blobs are kept by {@link #retainAll(java.util.Set)}, one hour */
+    private static final long _GRACE_PERIOD_MILLISECONDS = 60 * 60 * 1000;
+    private static final int _BUFFER_SIZE = 8 * 1024;
+    /** Matches the lower-case hex SHA-256 hashes that reference stored blobs */
+    private static final Pattern _REFERENCE = Pattern.compile("[0-9a-f]{64}");
+    /** Guards checking that a blob is stored against collecting it */
+    private static final Object _LOCK = new Object();
+    /** Directory that holds the blobs */
+    private final File _directory;
+}
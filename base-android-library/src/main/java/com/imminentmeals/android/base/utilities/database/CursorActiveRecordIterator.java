@@ -4,11 +4,16 @@ import android.database.Cursor;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import static com.google.common.collect.Lists.newArrayList;
+
 /**
  * @author Dandré Allison
  */
@@ -16,8 +21,27 @@ import javax.annotation.ParametersAreNonnullByDefault;
 public class CursorActiveRecordIterator<T extends ActiveRecord> implements Iterator<T>, Closeable {
 
     public CursorActiveRecordIterator(Cursor cursor, ActiveRecordFactory<T> active_record_factory) {
+        this(cursor, active_record_factory, ActiveRecordFactory.Profile.FULL, 0);
+    }
+
+    /**
+     * <p>Constructs an iterator over records created with the given profile. When the profile is
+     * {@link ActiveRecordFactory.Profile#LIGHT} and the prefetch size is positive, the records are read ahead in
+     * batches of that size and their lazy columns are loaded together, see
+     * {@link ActiveRecord#loadLazyColumns(java.util.Collection)}.</p>
+     * @param cursor the cursor, projected onto the profile's projection
+     * @param active_record_factory the factory that produces the records
+     * @param profile the profile with which to create the records
+     * @param prefetch_size the number of records whose lazy columns are loaded together, or {@code 0} to leave them
+     *                      to load on first access
+     */
+    public CursorActiveRecordIterator(Cursor cursor, ActiveRecordFactory<T> active_record_factory,
+                                      ActiveRecordFactory.Profile profile, @Nonnegative int prefetch_size) {
         _cursor = cursor;
         _active_record_factory = active_record_factory;
+        _profile = profile;
+        _prefetch_size = profile == ActiveRecordFactory.Profile.LIGHT? prefetch_size : 0;
+        _prefetched_records = new ArrayDeque<>();
         _next_record = null;
         _is_closed = cursor.isClosed();
     }
@@ -65,7 +89,7 @@ public class CursorActiveRecordIterator<T extends ActiveRecord> implements Itera
      * created
      */
     @CheckForNull private T newActiveRecordFromCursor(Cursor cursor) {
-        return _active_record_factory.create(cursor);
+        return _active_record_factory.create(cursor, _profile);
     }
 
     /**
@@ -73,15 +97,41 @@ public class CursorActiveRecordIterator<T extends ActiveRecord> implements Itera
      * populate {@link #_next_record}.</p>
      */
     private void fillActiveRecordIfAvailable() {
+        if (_prefetch_size > 0) {
+            if (_next_record == null && _prefetched_records.isEmpty()) prefetchActiveRecords();
+            if (_next_record == null) _next_record = _prefetched_records.poll();
+            return;
+        }
+
         // Loops until an ActiveRecord is created or the end of the cursor is reached
         while (_next_record == null && _cursor.moveToNext())
             _next_record = newActiveRecordFromCursor(_cursor);
     }
 
+    /**
+     * <p>Reads ahead the next batch of {@link ActiveRecord}s and loads their lazy columns together.</p>
+     */
+    private void prefetchActiveRecords() {
+        final List<T> records = newArrayList();
+        while (records.size() < _prefetch_size && _cursor.moveToNext()) {
+            final T record = newActiveRecordFromCursor(_cursor);
+            if (record != null) records.add(record);
+        }
+
+        ActiveRecord.loadLazyColumns(records);
+        _prefetched_records.addAll(records);
+    }
+
     /** Cursor over which to iterate */
     private final Cursor _cursor;
     /** Produces new {@link ActiveRecord}s of the appropriate type */
     private final ActiveRecordFactory<T> _active_record_factory;
+    /** The profile with which to create the {@link ActiveRecord}s */
+    private final ActiveRecordFactory.Profile _profile;
+    /** The number of {@link ActiveRecord}s whose lazy columns are loaded together */
+    private final int _prefetch_size;
+    /** {@link ActiveRecord}s read ahead of the cursor position */
+    private final ArrayDeque<T> _prefetched_records;
     /** The next {@link ActiveRecord} to return */
     private volatile T _next_record;
     /** Flag invalidating use of the {@link com.imminentmeals.android.base.utilities.database.CursorActiveRecordIterator} */
@@ -14,6 +14,9 @@ import com.google.common.io.Closeables;
 
 import java.io.IOException;
 
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+
 /**
  * <p>A convenience class to iterate over all the rows in a cursor calling {@link #step(android.database.Cursor)}
  * for each row and finally closing the cursor when no rows are left to walk.</p>
@@ -33,9 +36,28 @@ import java.io.IOException;
  * }.walk();
  * </pre></code>
  *
+ * <p>Long passes can {@linkplain #walk(int) walk in batches}, handing {@link #stepBatch(android.database.Cursor, int)}
+ * several rows at a time, report their {@linkplain #setProgressListener(ProgressListener) progress}, and be
+ * {@linkplain #pause() paused}, {@linkplain #resume() resumed} or {@linkplain #cancel() cancelled} from another
+ * thread. Pausing takes effect between batches; cancelling, or interrupting the walking thread, also between the rows
+ * of a batch.</p>
+ *
+ * @see ParallelCursorWalker
  */
 public abstract class CursorWalker {
 
+    /**
+     * <p>Told about the progress of the walk after each batch.</p>
+     */
+    public interface ProgressListener {
+        /**
+         * <p>Called after each batch, on the walking thread.</p>
+         * @param rows_done the number of rows walked so far
+         * @param row_count the number of rows to walk
+         */
+        void onProgress(@Nonnegative int rows_done, @Nonnegative int row_count);
+    }
+
     /**
      * <p>Creates the {@link android.database.Cursor} to walk.</p>
      * @return the cursor to walk
@@ -49,22 +71,62 @@ public abstract class CursorWalker {
      */
     protected abstract void step(Cursor cursor);
 
+    /**
+     * <p>Called for each batch of rows of the cursor, so that per-row work can be amortized over the batch. The
+     * cursor is moved to the first row of the batch, and may be moved freely within it. Steps through each row by
+     * default, until the walk is cancelled.</p>
+     * @param cursor the given cursor
+     * @param rows the number of rows in the batch
+     * @return the number of rows walked, fewer than {@code rows} only if the walk was cancelled within the batch
+     */
+    @Nonnegative protected int stepBatch(Cursor cursor, @Nonnegative int rows) {
+        for (int i = 0; i < rows; i++) {
+            if (isStopped()) return i;
+            step(cursor);
+            cursor.moveToNext();
+        }
+        return rows;
+    }
+
     /**
      * <p>Walks the {@link android.database.Cursor} and performs {@link #step(android.database.Cursor)} on each row.</p>
-     * @return number of records in the query
+     * @return number of records in the query, or the number walked if the walk was {@linkplain #isCancelled()
+     *         cancelled}
      */
     public int walk() {
+        return walk(1);
+    }
+
+    /**
+     * <p>Walks the {@link android.database.Cursor} and performs {@link #stepBatch(android.database.Cursor, int)} on
+     * each batch of rows. Between batches the walk reports its progress, waits while it's paused, and stops when
+     * it's cancelled. Interrupting the walking thread cancels the walk, and leaves the thread interrupted, so a
+     * shorter walk can always be told apart by {@link #isCancelled()}.</p>
+     * @param batch_size the number of rows in each batch
+     * @return number of records in the query, or the number walked if the walk was {@linkplain #isCancelled()
+     *         cancelled}
+     */
+    public int walk(@Nonnegative int batch_size) {
+        batch_size = Math.max(1, batch_size);
         Cursor cursor = null;
 
         try {
             cursor = createCursor();
 
-            for (int i = 0; i < cursor.getCount(); i++) {
-                cursor.moveToNext();
-                step(cursor);
+            final int count = cursor.getCount();
+            int rows_done = 0;
+            while (rows_done < count && awaitResumed()) {
+                final int rows = Math.min(batch_size, count - rows_done);
+                cursor.moveToPosition(rows_done);
+                final int rows_walked = stepBatch(cursor, rows);
+                rows_done += rows_walked;
+
+                final ProgressListener progress_listener = _progress_listener;
+                if (progress_listener != null) progress_listener.onProgress(rows_done, count);
+                if (rows_walked < rows) break;
             }
 
-            return cursor.getCount();
+            return rows_done;
 
         } finally {
             //noinspection EmptyCatchBlock
@@ -73,4 +135,86 @@ public abstract class CursorWalker {
             } catch (IOException _) { }
         }
     }
+
+    /**
+     * <p>Sets the listener told about the progress of the walk.</p>
+     * @param progress_listener the listener, or {@code null} to stop telling
+     */
+    public void setProgressListener(@Nullable ProgressListener progress_listener) {
+        _progress_listener = progress_listener;
+    }
+
+    /**
+     * <p>Pauses the walk after the current batch, until {@link #resume()}. The cursor stays open while paused.</p>
+     */
+    public void pause() {
+        synchronized (_pause_lock) {
+            _is_paused = true;
+        }
+    }
+
+    /**
+     * <p>Resumes a {@linkplain #pause() paused} walk.</p>
+     */
+    public void resume() {
+        synchronized (_pause_lock) {
+            _is_paused = false;
+            _pause_lock.notifyAll();
+        }
+    }
+
+    /**
+     * <p>Stops the walk after the current row, or after the current batch when
+     * {@link #stepBatch(android.database.Cursor, int)} is overridden, including a paused walk. May also be called from
+     * {@link #step(android.database.Cursor)} to end the walk early.</p>
+     */
+    public void cancel() {
+        synchronized (_pause_lock) {
+            _is_cancelled = true;
+            _pause_lock.notifyAll();
+        }
+    }
+
+    /**
+     * <p>Determines if the walk was {@linkplain #cancel() cancelled}, or its thread interrupted.</p>
+     * @return {@code true} indicates that the walk was cancelled
+     */
+    public boolean isCancelled() {
+        return _is_cancelled;
+    }
+
+/* Private helper methods */
+    /**
+     * <p>Waits while the walk is paused.</p>
+     * @return {@code true} indicates that the walk should continue, {@code false} that it was cancelled or
+     *         interrupted
+     */
+    private boolean awaitResumed() {
+        if (!_is_paused) return !isStopped();
+
+        synchronized (_pause_lock) {
+            try {
+                while (_is_paused && !_is_cancelled)
+                    _pause_lock.wait();
+            } catch (InterruptedException _) {
+                Thread.currentThread().interrupt();
+            }
+            return !isStopped();
+        }
+    }
+
+    /**
+     * <p>Determines if the walk should stop, cancelling it if its thread was interrupted.</p>
+     * @return {@code true} indicates that the walk was cancelled
+     */
+    private boolean isStopped() {
+        if (!_is_cancelled && Thread.currentThread().isInterrupted()) cancel();
+        return _is_cancelled;
+    }
+
+    /** Guards pausing, resuming and cancelling */
+    private final Object _pause_lock = new Object();
+    private volatile boolean _is_paused;
+    private volatile boolean _is_cancelled;
+    private volatile ProgressListener _progress_listener;
 }
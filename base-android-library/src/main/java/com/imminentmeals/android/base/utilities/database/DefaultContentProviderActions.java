@@ -16,6 +16,7 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 
 import com.google.common.io.Closeables;
+import com.imminentmeals.android.base.utilities.ThreadLocalPool;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -26,9 +27,6 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
-import nf.fr.eraasoft.pool.ObjectPool;
-import nf.fr.eraasoft.pool.PoolException;
-
 import static com.google.common.collect.Lists.newArrayList;
 import static com.imminentmeals.android.base.utilities.database.QueryBuilder.Op;
 
@@ -52,7 +50,7 @@ public class DefaultContentProviderActions extends ContentProviderActions {
      */
     public <T extends ActiveRecord> DefaultContentProviderActions(String table, boolean should_expect_appended_id
             , @Nullable ActiveRecordFactory<T> active_record_factory
-            , ObjectPool<QueryBuilder> query) {
+            , ThreadLocalPool<QueryBuilder> query) {
         _table = table;
         _should_expect_appended_id = should_expect_appended_id;
         _active_record_factory = active_record_factory;
@@ -65,7 +63,7 @@ public class DefaultContentProviderActions extends ContentProviderActions {
      * @param should_expect_appended_id indicates URI's are expected to have appended ID's
      */
     public DefaultContentProviderActions(String table, boolean should_expect_appended_id
-            , ObjectPool<QueryBuilder> query) {
+            , ThreadLocalPool<QueryBuilder> query) {
         this(table, should_expect_appended_id, null, query);
     }
 
@@ -83,19 +81,18 @@ public class DefaultContentProviderActions extends ContentProviderActions {
         final SQLiteDatabase database = content.getOpenHelper().getWritableDatabase();
         if (database == null) return -1;
 
-        QueryBuilder query = null;
+        final QueryBuilder query = _query.borrow();
         try {
-           query = _query.getObj();
-            return _should_expect_appended_id
+            final int count = _should_expect_appended_id
                     ? query
                         .expression(BaseColumns._ID, Op.IS_EQUAL_TO, ContentUris.parseId(uri))
                         .append(selection, selection_arguments)
                         .delete(database, _table)
                     : database.delete(_table, selection, selection_arguments);
-        } catch (PoolException exception) {
-            return -1;
+            if (count > 0) content.collectBlobGarbage();
+            return count;
         } finally {
-            _query.returnObj(query);
+            _query.release(query);
         }
     }
 
@@ -133,19 +130,16 @@ public class DefaultContentProviderActions extends ContentProviderActions {
         final SQLiteDatabase database = content.getOpenHelper().getWritableDatabase();
         if (database == null) return -1;
 
-        QueryBuilder query = null;
+        final QueryBuilder query = _query.borrow();
         try {
-            query = _query.getObj();
             return _should_expect_appended_id
                     ? query
                         .expression(BaseColumns._ID, Op.IS_EQUAL_TO, ContentUris.parseId(uri))
                         .append(selection, selection_arguments)
                         .update(database, _table, values)
                     : database.update(_table, values, selection, selection_arguments);
-        } catch (PoolException exception) {
-            return -1;
         } finally {
-            _query.returnObj(query);
+            _query.release(query);
         }
     }
 
@@ -166,19 +160,18 @@ public class DefaultContentProviderActions extends ContentProviderActions {
         final SQLiteDatabase database = content.getOpenHelper().getReadableDatabase();
         if (database == null) return null;
 
-        QueryBuilder query = null;
+        final String limit = uri.getQueryParameter(BaseContentProvider.PARAM_LIMIT);
+        final QueryBuilder query = _query.borrow();
         try {
-            query = _query.getObj();
             return _should_expect_appended_id
                     ? query
                         .expression(BaseColumns._ID, QueryBuilder.Op.IS_EQUAL_TO, ContentUris.parseId(uri))
                         .append(selection, selection_arguments)
-                        .query(database, _table, projection, sort_order)
-                    : database.query(_table, projection, selection, selection_arguments, null, null, sort_order);
-        } catch (PoolException exception) {
-            return null;
+                        .query(database, _table, projection, sort_order, limit, content.getOpenHelper().cursorFactory())
+                    : database.query(_table, projection, selection, selection_arguments, null, null, sort_order,
+                                     limit);
         } finally {
-            _query.returnObj(query);
+            _query.release(query);
         }
     }
 
@@ -218,12 +211,13 @@ public class DefaultContentProviderActions extends ContentProviderActions {
         if (database == null) return new ArrayList<>();
         Cursor cursor = null;
         final ArrayList<T> items = newArrayList();
+        final ActiveRecordFactory.Profile profile = projectionProfile(uri);
 
         try {
-            cursor = database.query(_table, _active_record_factory.projection(), query.toString(), query.argumentsAsArray(), null, null, sort_order);
+            cursor = database.query(_table, _active_record_factory.projection(profile), query.toString(), query.argumentsAsArray(), null, null, sort_order);
 
             while (cursor.moveToNext())
-                items.add((T) _active_record_factory.create(cursor));
+                items.add((T) _active_record_factory.create(cursor, profile));
         } finally {
             try {
                 Closeables.close(cursor, true);
@@ -246,21 +240,39 @@ public class DefaultContentProviderActions extends ContentProviderActions {
                 return new ArrayList<T>().iterator();
             }
         };
-        final Cursor cursor = database.query(_table, _active_record_factory.projection(), query.toString(), query.argumentsAsArray(), null, null, sort_order);
+        final ActiveRecordFactory.Profile profile = projectionProfile(uri);
+        final Cursor cursor = database.query(_table, _active_record_factory.projection(profile), query.toString(), query.argumentsAsArray(), null, null, sort_order);
         return new Iterable<T>() {
             @SuppressWarnings("unchecked")
             @Override
             public Iterator<T> iterator() {
-                return new CursorActiveRecordIterator<>(cursor, (ActiveRecordFactory<T>) _active_record_factory);
+                return new CursorActiveRecordIterator<>(cursor, (ActiveRecordFactory<T>) _active_record_factory,
+                        profile, 0);
             }
         };
     }
 
+    /**
+     * <p>Retrieves the {@link ActiveRecordFactory.Profile} requested by the given {@link android.net.Uri URI}.</p>
+     * @param uri the given URI
+     * @return the requested profile, {@link ActiveRecordFactory.Profile#FULL} by default, or when the requested
+     *         profile is unknown
+     */
+    private static ActiveRecordFactory.Profile projectionProfile(Uri uri) {
+        final String profile = uri.getQueryParameter(BaseContentProvider.PARAM_PROJECTION_PROFILE);
+        if (profile == null) return ActiveRecordFactory.Profile.FULL;
+        try {
+            return ActiveRecordFactory.Profile.valueOf(profile);
+        } catch (IllegalArgumentException _) {
+            return ActiveRecordFactory.Profile.FULL;
+        }
+    }
+
     /** The content source */
     private String _table;
     /** Produces new {@link ActiveRecord}s of the appropriate type */
     private ActiveRecordFactory<?> _active_record_factory;
     /** Indicates when the {@link android.content.ContentProvider} should expect an ID in the request URIs */
     private boolean _should_expect_appended_id;
-    private final ObjectPool<QueryBuilder> _query;
+    private final ThreadLocalPool<QueryBuilder> _query;
 }
@@ -0,0 +1,141 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGD;
+
+/**
+ * <p>{@link android.database.sqlite.SQLiteDatabase.CursorFactory} that records how many rows, and about how much
+ * memory, each query fills into its {@link CursorWindow}. Every time a cursor fills a window, its {@link Listener}
+ * is told, so that queries that fill large windows before first paint can be found and limited, see
+ * {@link BaseContentProvider#PARAM_LIMIT}.</p>
+ *
+ * <p>Estimating the size of a window reads every string and blob in it, so measure while diagnosing, such as in debug
+ * builds, rather than in production.</p>
+ *
+ * <p>The window size itself is fixed by the platform on the supported versions, so the number of rows a query fills
+ * is the only lever.</p>
+ *
+ * @see BaseSqliteOpenHelper#BaseSqliteOpenHelper(android.content.Context, String, SQLiteDatabase.CursorFactory, int)
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public class MeasuringCursorFactory implements SQLiteDatabase.CursorFactory {
+
+    /**
+     * <p>Told about each filled {@link CursorWindow}.</p>
+     */
+    public interface Listener {
+        /**
+         * <p>Called when a cursor fills a window.</p>
+         * @param query the query that filled the window
+         * @param start_position the position in the result of the first row in the window
+         * @param row_count the number of rows in the window
+         * @param byte_count the estimated number of bytes the rows take in the window
+         */
+        void onWindowFilled(String query, @Nonnegative int start_position, @Nonnegative int row_count,
+                            @Nonnegative long byte_count);
+    }
+
+    /**
+     * <p>Constructs a {@link MeasuringCursorFactory} that tells the given listener about each filled window.</p>
+     * @param listener the given listener
+     */
+    public MeasuringCursorFactory(Listener listener) {
+        _listener = listener;
+    }
+
+    /**
+     * <p>Constructs a {@link MeasuringCursorFactory} that logs each filled window at the debug level.</p>
+     */
+    public MeasuringCursorFactory() {
+        this(new Listener() {
+
+            @Override
+            public void onWindowFilled(String query, int start_position, int row_count, long byte_count) {
+                AUTOTAGLOGD("%d rows (~%d bytes) from %d filled by %s", row_count, byte_count, start_position, query);
+            }
+        });
+    }
+
+/* CursorFactory contract */
+    @Override
+    public Cursor newCursor(SQLiteDatabase database, SQLiteCursorDriver driver, String edit_table,
+                            SQLiteQuery query) {
+        return new MeasuringCursor(driver, edit_table, query, _listener);
+    }
+
+/* Private helper methods */
+    /**
+     * <p>Estimates the number of bytes the rows of the given window take. Each field costs a slot, plus the bytes of
+     * its string or blob.</p>
+     * @param window the given window
+     * @param column_count the number of columns in each row
+     * @param buffer buffer reused to read strings without allocating them
+     * @return the estimated number of bytes
+     */
+    private static long estimateBytes(CursorWindow window, @Nonnegative int column_count, CharArrayBuffer buffer) {
+        final int start_position = window.getStartPosition();
+        final int row_count = window.getNumRows();
+        long byte_count = (long) row_count * column_count * _FIELD_SLOT_SIZE;
+        for (int row = start_position; row < start_position + row_count; row++)
+            for (int column = 0; column < column_count; column++)
+                switch (window.getType(row, column)) {
+                    case Cursor.FIELD_TYPE_STRING:
+                        window.copyStringToBuffer(row, column, buffer);
+                        byte_count += buffer.sizeCopied;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        byte_count += window.getBlob(row, column).length;
+                        break;
+                    default: break;
+                }
+        return byte_count;
+    }
+
+    /**
+     * <p>{@link SQLiteCursor} that reports each window it fills.</p>
+     */
+    private static class MeasuringCursor extends SQLiteCursor {
+
+        MeasuringCursor(SQLiteCursorDriver driver, String edit_table, SQLiteQuery query, Listener listener) {
+            super(driver, edit_table, query);
+            _query = query.toString();
+            _listener = listener;
+        }
+
+        @Override
+        public boolean onMove(int old_position, int new_position) {
+            final boolean has_moved = super.onMove(old_position, new_position);
+            final CursorWindow window = getWindow();
+            if (window != null && (window != _measured_window || window.getStartPosition() != _measured_start)) {
+                _measured_window = window;
+                _measured_start = window.getStartPosition();
+                _listener.onWindowFilled(_query, _measured_start, window.getNumRows(),
+                        estimateBytes(window, getColumnCount(), _buffer));
+            }
+            return has_moved;
+        }
+
+        private final String _query;
+        private final Listener _listener;
+        private final CharArrayBuffer _buffer = new CharArrayBuffer(_BUFFER_SIZE);
+        /** The window, and its start position, that was last reported */
+        private CursorWindow _measured_window;
+        private int _measured_start = -1;
+    }
+
+    /** Bytes the native window takes per field, besides the field's data */
+    private static final int _FIELD_SLOT_SIZE = 16;
+    private static final int _BUFFER_SIZE = 256;
+    private final Listener _listener;
+}
@@ -0,0 +1,198 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.database.Cursor;
+
+import com.google.common.io.Closeables;
+import com.imminentmeals.android.base.utilities.WorkerPool;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * <p>Walks the rows of a table in parallel, for passes whose {@link #step(android.database.Cursor, Object)} is
+ * CPU-bound. The table is split into ranges of ids, one per partition; each partition walks its own
+ * {@link android.database.Cursor} into its own accumulator, and the accumulators are merged, in the order of the
+ * ranges, once all partitions are done.</p>
+ * <p><b>Example:</b></p>
+ *
+ * <code><pre>
+ * final int words = new ParallelCursorWalker&lt;int[]&gt;() {
+ *     &#64Override
+ *     protected long[] idRange() {
+ *         return new long[] { query.longFromFirstRow(Books.CONTENT_URI, "min(_id)"),
+ *                             query.longFromFirstRow(Books.CONTENT_URI, "max(_id)") };
+ *     }
+ *
+ *     &#64Override
+ *     protected Cursor createCursor(long first_id, long last_id) {
+ *         return new QueryBuilder(context)
+ *                 .expression(Books._ID, Op.IS_NO_LESS_THAN, first_id)
+ *                 .expression(Books._ID, Op.IS_NOT_GREATER_THAN, last_id)
+ *                 .select(Books.CONTENT_URI, new String[] { Books.TEXT });
+ *     }
+ *
+ *     &#64Override
+ *     protected int[] createAccumulator() {
+ *         return new int[1];
+ *     }
+ *
+ *     &#64Override
+ *     protected void step(Cursor cursor, int[] accumulator) {
+ *         accumulator[0] += countWords(cursor.getString(0));
+ *     }
+ *
+ *     &#64Override
+ *     protected int[] merge(int[] accumulator, int[] other) {
+ *         accumulator[0] += other[0];
+ *         return accumulator;
+ *     }
+ * }.walk()[0];
+ * </pre></code>
+ *
+ * <p>The partitions run on a shared pool with a thread per processor; fork/join isn't available on the supported
+ * platform versions. A walk started from a partition of another walk runs its partitions one after the other on the
+ * calling thread, rather than waiting on the pool it's occupying.</p>
+ *
+ * @param <A> the type of the accumulator
+ * @see CursorWalker
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public abstract class ParallelCursorWalker<A> {
+
+    /**
+     * <p>Constructs a {@link ParallelCursorWalker} with a partition per processor.</p>
+     */
+    public ParallelCursorWalker() {
+        this(_PROCESSOR_COUNT);
+    }
+
+    /**
+     * <p>Constructs a {@link ParallelCursorWalker}.</p>
+     * @param partition_count the number of ranges of ids to walk in parallel
+     */
+    public ParallelCursorWalker(@Nonnegative int partition_count) {
+        _partition_count = Math.max(1, partition_count);
+    }
+
+    /**
+     * <p>Retrieves the range of ids to walk.</p>
+     * @return the first and the last id, inclusive
+     */
+    @Nonnull protected abstract long[] idRange();
+
+    /**
+     * <p>Creates the {@link android.database.Cursor} to the rows of a partition. Called on the partition's
+     * thread.</p>
+     * @param first_id the first id of the partition, inclusive
+     * @param last_id the last id of the partition, inclusive
+     * @return the cursor to walk
+     */
+    protected abstract Cursor createCursor(long first_id, long last_id);
+
+    /**
+     * <p>Creates an empty accumulator for a partition.</p>
+     * @return the accumulator
+     */
+    @Nonnull protected abstract A createAccumulator();
+
+    /**
+     * <p>Called for each row of a partition's cursor, on the partition's thread.</p>
+     * @param cursor the cursor, moved to the row
+     * @param accumulator the partition's accumulator
+     */
+    protected abstract void step(Cursor cursor, A accumulator);
+
+    /**
+     * <p>Merges the accumulator of a later partition into that of the earlier ones.</p>
+     * @param accumulator the accumulator of the earlier partitions
+     * @param other the accumulator of the later partition
+     * @return the merged accumulator
+     */
+    @Nonnull protected abstract A merge(A accumulator, A other);
+
+    /**
+     * <p>Walks all the partitions in parallel and merges their accumulators.</p>
+     * @return the merged accumulator
+     * @throws InterruptedException Indicates the calling thread was interrupted while waiting, the partitions are
+     *         cancelled
+     */
+    @Nonnull public A walk() throws InterruptedException {
+        final long[] id_range = idRange();
+        final long first_id = id_range[0];
+        final long last_id = id_range[1];
+        if (last_id < first_id) return createAccumulator();
+
+        // Partitions of at least one id each
+        final long span = last_id - first_id + 1;
+        final int partition_count = (int) Math.min(_partition_count, span);
+        final boolean is_nested = _WALKERS.isWorkerThread();
+        final List<FutureTask<A>> partitions = newArrayList();
+        for (int i = 0; i < partition_count; i++) {
+            final long partition_first_id = first_id + span * i / partition_count;
+            final long partition_last_id = first_id + span * (i + 1) / partition_count - 1;
+            final FutureTask<A> partition = new FutureTask<>(new Callable<A>() {
+                @Override
+                public A call() {
+                    return walkPartition(partition_first_id, partition_last_id);
+                }
+            });
+            partitions.add(partition);
+            // A pool thread waiting on the pool could take the last thread its partitions need
+            if (is_nested)
+                partition.run();
+            else
+                _WALKERS.execute(partition);
+        }
+
+        try {
+            A accumulator = null;
+            for (FutureTask<A> partition : partitions)
+                accumulator = accumulator == null? partition.get() : merge(accumulator, partition.get());
+            return accumulator;
+        } catch (ExecutionException error) {
+            for (FutureTask<A> partition : partitions)
+                partition.cancel(true);
+            final Throwable cause = error.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException error) {
+            for (FutureTask<A> partition : partitions)
+                partition.cancel(true);
+            throw error;
+        }
+    }
+
+/* Private helper methods */
+    @Nonnull private A walkPartition(long first_id, long last_id) {
+        final A accumulator = createAccumulator();
+        Cursor cursor = null;
+        try {
+            cursor = createCursor(first_id, last_id);
+
+            while (cursor.moveToNext() && !Thread.currentThread().isInterrupted())
+                step(cursor, accumulator);
+            return accumulator;
+        } finally {
+            //noinspection EmptyCatchBlock
+            try {
+                Closeables.close(cursor, true);
+            } catch (IOException _) { }
+        }
+    }
+
+    private static final int _PROCESSOR_COUNT = Runtime.getRuntime().availableProcessors();
+    /** Walks the partitions of all walkers, a thread per processor */
+    private static final WorkerPool _WALKERS = new WorkerPool(_PROCESSOR_COUNT);
+    private final int _partition_count;
+}
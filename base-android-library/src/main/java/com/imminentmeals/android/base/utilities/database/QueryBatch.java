@@ -0,0 +1,228 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.inject.Inject;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * <p>Runs several queries, over different {@link android.net.Uri URI}s, concurrently and delivers their results
+ * together, so that a screen that needs them all waits about as long as the slowest query rather than their sum.</p>
+ *
+ * <p>Each query is registered with the {@link QueryBuilder} that selects its rows; the selection is copied, so the
+ * builder can be reset and reused right away. {@link #execute()} then runs them on a shared pool of readers and
+ * returns once all are done, after which each registered {@link Future} holds its result.</p>
+ *
+ * <pre><code>QueryBatch batch = new QueryBatch(context);
+ * Future&lt;Integer&gt; books = batch.count(Books.CONTENT_URI, query);
+ * Future&lt;Cursor&gt; authors = batch.select(Authors.CONTENT_URI, other_query, projection, null);
+ * batch.execute();
+ * </code></pre>
+ *
+ * <p>The queries only run in parallel in the database when it allows concurrent readers, see
+ * {@link BaseSqliteOpenHelper#shouldEnableWriteAheadLogging()}.</p>
+ *
+ * @author Dandré Allison
+ */
+@ParametersAreNonnullByDefault
+public class QueryBatch {
+
+    /**
+     * <p>Query to run over a {@link android.net.Uri URI}.</p>
+     */
+    public interface Operation<T> {
+        /**
+         * <p>Runs the query over the given URI, on one of the readers.</p>
+         * @param query the selection of the query, a builder of its own
+         * @param uri the given URI
+         * @return the result
+         */
+        T run(QueryBuilder query, Uri uri);
+    }
+
+    @Inject
+    public QueryBatch(Context context) {
+        _context = context;
+    }
+
+    /**
+     * <p>Registers a query that runs the given operation over the given URI.</p>
+     * @param uri the given URI
+     * @param query the selection of the query
+     * @param operation the given operation
+     * @return the result, once {@link #execute()} returns
+     */
+    public <T> Future<T> add(final Uri uri, QueryBuilder query, final Operation<T> operation) {
+        final String selection = query.toString();
+        final String[] selection_arguments = query.argumentsAsArray();
+        final BatchQuery<T> task = new BatchQuery<>(new Callable<T>() {
+            @Override
+            public T call() {
+                return operation.run(new QueryBuilder(_context).append(selection, selection_arguments), uri);
+            }
+        });
+        _tasks.add(task);
+        return task;
+    }
+
+    /**
+     * <p>Registers a query that counts the matches at the given URI.</p>
+     * @param uri the given URI
+     * @param query the selection of the query
+     * @return the number of matching rows, once {@link #execute()} returns
+     * @see QueryBuilder#count(android.net.Uri)
+     */
+    public Future<Integer> count(Uri uri, QueryBuilder query) {
+        return add(uri, query, new Operation<Integer>() {
+            @Override
+            public Integer run(QueryBuilder query, Uri uri) {
+                return query.count(uri);
+            }
+        });
+    }
+
+    /**
+     * <p>Registers a query that retrieves the cursor to the matches at the given URI. The cursor is filled on the
+     * reader, so it can be read right away.</p>
+     * @param uri the given URI
+     * @param query the selection of the query
+     * @param projection the vector space on which to project the result
+     * @param sort_order the order to apply to the result space
+     * @return the cursor, once {@link #execute()} returns
+     * @see QueryBuilder#select(android.net.Uri, String[], String)
+     */
+    public Future<Cursor> select(Uri uri, QueryBuilder query, final String[] projection,
+                                 @Nullable final String sort_order) {
+        return add(uri, query, new Operation<Cursor>() {
+            @Override
+            public Cursor run(QueryBuilder query, Uri uri) {
+                final Cursor cursor = query.select(uri, projection, sort_order);
+                // Fills the first window here rather than on the caller's thread
+                if (cursor != null) cursor.getCount();
+                return cursor;
+            }
+        });
+    }
+
+    /**
+     * <p>Registers a query that retrieves the {@link ActiveRecord}s that match at the given URI.</p>
+     * @param uri the given URI
+     * @param query the selection of the query
+     * @param sort_order the order to apply to the result space
+     * @return the records, once {@link #execute()} returns
+     * @see QueryBuilder#select(android.net.Uri, String)
+     */
+    public <T extends ActiveRecord> Future<List<T>> selectRecords(Uri uri, QueryBuilder query,
+                                                                  @Nullable final String sort_order) {
+        return add(uri, query, new Operation<List<T>>() {
+            @Override
+            public List<T> run(QueryBuilder query, Uri uri) {
+                return query.select(uri, sort_order);
+            }
+        });
+    }
+
+    /**
+     * <p>Runs the registered queries concurrently and waits for all of them to finish. The calling thread runs one of
+     * them itself. A query that fails doesn't stop the others, its {@link Future} throws the failure instead. The
+     * batch is empty again afterwards.</p>
+     * @throws InterruptedException Indicates the calling thread was interrupted while waiting. The batch is
+     *         abandoned: the queries that haven't started are skipped, and the cursors of the others are closed as
+     *         they finish, since no one will retrieve them
+     */
+    public void execute() throws InterruptedException {
+        final List<BatchQuery<?>> tasks = newArrayList(_tasks);
+        _tasks.clear();
+        if (tasks.isEmpty()) return;
+
+        for (int i = 1; i < tasks.size(); i++)
+            _READERS.execute(tasks.get(i));
+        tasks.get(0).run();
+
+        try {
+            for (BatchQuery<?> task : tasks)
+                try {
+                    task.get();
+                } catch (ExecutionException _) {
+                    // Thrown again to whoever retrieves the result
+                }
+        } catch (InterruptedException error) {
+            for (BatchQuery<?> task : tasks)
+                task.abandon();
+            throw error;
+        }
+    }
+
+    /**
+     * <p>Query of a batch, that closes its {@link Cursor} if the batch is abandoned. Cancelling a running
+     * {@link FutureTask} drops its result, so an abandoned query runs to the end instead, unless it hasn't started.
+     * </p>
+     */
+    private static class BatchQuery<T> extends FutureTask<T> {
+
+        BatchQuery(final Callable<T> query) {
+            this(query, new AtomicBoolean());
+        }
+
+        private BatchQuery(final Callable<T> query, final AtomicBoolean is_abandoned) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    if (is_abandoned.get()) throw new CancellationException("The batch was abandoned");
+                    return query.call();
+                }
+            });
+            _is_abandoned = is_abandoned;
+        }
+
+        /**
+         * <p>Closes the result as soon as the query is done.</p>
+         */
+        void abandon() {
+            _is_abandoned.set(true);
+            if (isDone()) closeResult();
+        }
+
+        @Override
+        protected void done() {
+            if (_is_abandoned.get()) closeResult();
+        }
+
+        private void closeResult() {
+            if (!_is_closed.compareAndSet(false, true)) return;
+            try {
+                final T result = get();
+                if (result instanceof Cursor) ((Cursor) result).close();
+            } catch (ExecutionException | InterruptedException | CancellationException _) {
+                // No result to close
+            }
+        }
+
+        private final AtomicBoolean _is_abandoned;
+        /** Guards against closing the result both when abandoned and when done */
+        private final AtomicBoolean _is_closed = new AtomicBoolean();
+    }
+
+    /** Number of readers, the size of the platform's pool of connections for write-ahead logging */
+    private static final int _READER_COUNT = 4;
+    /** Runs the queries of all batches */
+    private static final ExecutorService _READERS = Executors.newFixedThreadPool(_READER_COUNT);
+    private final Context _context;
+    /** The registered queries */
+    private final List<BatchQuery<?>> _tasks = newArrayList();
+}
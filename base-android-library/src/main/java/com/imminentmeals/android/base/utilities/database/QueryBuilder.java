@@ -13,23 +13,38 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.CursorLoader;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.provider.BaseColumns;
 
 import com.google.common.io.Closeables;
+import com.imminentmeals.android.base.utilities.CryptographyUtilities;
 import com.imminentmeals.android.base.utilities.StringUtilities;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.inject.Inject;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGE;
 
 /**
  * <p>Construct content provider/database queries using a fluent API.</p>
@@ -49,6 +64,10 @@ import static com.google.common.collect.Lists.newArrayList;
  *
  * <p>If a query ends with either {@link #or()} or {@link #and()} they will not be included when executing the query
  * since it is an error to end a query without the right operand of an expression.</p>
+ *
+ * <p>Queries run directly against a {@link SQLiteDatabase} bind each argument with its own type, so numbers are bound
+ * as INTEGER or REAL, blobs as BLOB and {@code null} as NULL. Queries through a {@link android.content.ContentResolver}
+ * can only pass Strings, so there the arguments are bound as TEXT, and blob arguments aren't supported.</p>
  */
 // TODO: Cursor from queries can be null, update annotations
 @SuppressWarnings("UnusedDeclaration")
@@ -126,6 +145,11 @@ public class QueryBuilder {
          * The REGEXP operator
          */
         String MATCHES_EXPRESSION = " REGEXP ";
+        /**
+         * The full-text MATCH operator, only valid against an FTS table, see
+         * {@link com.imminentmeals.android.base.utilities.database.QueryBuilder#expressionMatches(String, String)}
+         */
+        String MATCHES = " MATCH ";
     }
 
     @Inject
@@ -152,9 +176,19 @@ public class QueryBuilder {
      * @return the list of expression arguments
      */
     public String[] argumentsAsArray() {
+        if (_has_blob_arguments)
+            throw new IllegalStateException("Blob arguments can only be bound directly to a SQLiteDatabase.");
         return _arguments.toArray(new String[_arguments.size()]);
     }
 
+    /**
+     * Retrieves the list of expression arguments with their own types.
+     * @return the list of expression arguments
+     */
+    /* package */List<Object> typedArguments() {
+        return _typed_arguments;
+    }
+
     /**
      * <p>Adds an expression to the end of the currently added expressions, if
      * no previous boolean operator has been given ({@link #and()} or {@link #or()}) then
@@ -166,12 +200,23 @@ public class QueryBuilder {
      * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
      */
     public QueryBuilder expression(String column, String operator, String argument) {
-        ensureOp();
-        _query_string.append(column).append(operator).append("?");
-        _arguments.add(argument);
-        _next_operator = null;
+        return expression(column, operator, argument, argument);
+    }
 
-        return this;
+    /**
+     * <p>Adds an expression to the end of the currently added expressions, if
+     * no previous boolean operator has been given ({@link #and()} or {@link #or()}) then
+     * AND will be used by default when appending this expression. The argument is bound as a BLOB, so this query can
+     * only run directly against a {@link SQLiteDatabase}.</p>
+     * @param column the column on the left side of the expression
+     * @param operator the operator, see {@link com.imminentmeals.android.base.utilities.database.QueryBuilder.Op} for available operators
+     * @param argument the argument for the right side of the expression to be bound at a
+     *                 later time
+     * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
+     */
+    public QueryBuilder expression(String column, String operator, byte[] argument) {
+        _has_blob_arguments = true;
+        return expression(column, operator, argument, null);
     }
 
     /**
@@ -191,6 +236,25 @@ public class QueryBuilder {
         return this;
     }
 
+    /**
+     * <p>Adds an expression that matches the rows whose encrypted column holds the given value, by comparing the
+     * blind index written with
+     * {@link ValuesBuilder#putEncrypted(CryptographyUtilities, String, String)}, so the rows don't need to be
+     * deciphered and the match can seek the index created by
+     * {@link SqliteMigration#addBlindIndex(SQLiteDatabase, String, String)}. If no previous boolean operator has been
+     * given ({@link #and()} or {@link #or()}) then AND will be used by default when appending this expression.</p>
+     * @param column the encrypted column
+     * @param value the value to match, normalized the same way as when it was written
+     * @param crypto the cryptography utilities that hold the key
+     * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
+     * @throws GeneralSecurityException Indicates the blind index couldn't be computed
+     * @throws UnsupportedEncodingException Indicates the String encoding isn't valid
+     */
+    public QueryBuilder expressionEncryptedEquals(String column, String value, CryptographyUtilities crypto)
+            throws GeneralSecurityException, UnsupportedEncodingException {
+        return expression(SqliteMigration.blindIndexColumn(column), Op.IS_EQUAL_TO, crypto.blindIndex(column, value));
+    }
+
     /**
      * <p>An ISNULL expression on the given column name.</p>
      * @param column the column name on the left side of the expression
@@ -217,6 +281,27 @@ public class QueryBuilder {
         return this;
     }
 
+    /**
+     * <p>A full-text search expression, matching the rows of the given table whose
+     * {@linkplain SqliteMigration#createFullTextIndex(android.database.sqlite.SQLiteDatabase, String, String...)
+     * full-text index} matches the given FTS query. Unlike {@link Op#IS_LIKE} with a leading wildcard, this doesn't
+     * scan the table.</p>
+     * @param table the table with the full-text index
+     * @param search the FTS query, such as {@code "term"}, {@code "title:term"} or {@code "prefix*"}
+     * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
+     */
+    public QueryBuilder expressionMatches(String table, String search) {
+        final String index = SqliteMigration.fullTextTable(table);
+        ensureOp();
+        _query_string.append(BaseColumns._ID).append(" IN (SELECT docid FROM ").append(index)
+                     .append(" WHERE ").append(index).append(Op.MATCHES).append("?)");
+        _arguments.add(search);
+        _typed_arguments.add(search);
+        _next_operator = null;
+
+        return this;
+    }
+
     /**
      * Add a sub-expression to this expression, the sub-expression will be enclosed in parenthesises, like
      * a=? AND (b=?) AND c=? where "b=?" is the sub-expression
@@ -232,6 +317,8 @@ public class QueryBuilder {
             ensureOp();
             _query_string.append("(").append(query).append(")");
             _arguments.addAll(arguments);
+            _typed_arguments.addAll(query._typed_arguments);
+            _has_blob_arguments |= query._has_blob_arguments;
         }
 
         _next_operator = null;
@@ -250,7 +337,7 @@ public class QueryBuilder {
      * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
      */
     public QueryBuilder expression(String column, String operator, boolean argument) {
-        return expression(column, operator, argument? "1" : "0");
+        return expression(column, operator, argument? 1L : 0L, argument? "1" : "0");
     }
 
     /**
@@ -264,7 +351,7 @@ public class QueryBuilder {
      * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
      */
     public QueryBuilder expression(String column, String operator, int argument) {
-        return expression(column, operator, Integer.toString(argument));
+        return expression(column, operator, (long) argument, Integer.toString(argument));
     }
 
     /**
@@ -278,7 +365,7 @@ public class QueryBuilder {
      * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
      */
     public QueryBuilder expression(String column, String operator, long argument) {
-        return expression(column, operator, Long.toString(argument));
+        return expression(column, operator, argument, Long.toString(argument));
     }
 
     /**
@@ -292,7 +379,7 @@ public class QueryBuilder {
      * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
      */
     public QueryBuilder expression(String column, String operator, float argument) {
-        return expression(column, operator, Float.toString(argument));
+        return expression(column, operator, (double) argument, Float.toString(argument));
     }
 
     /**
@@ -306,7 +393,7 @@ public class QueryBuilder {
      * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
      */
     public QueryBuilder expression(String column, String operator, double argument) {
-        return expression(column, operator, Double.toString(argument));
+        return expression(column, operator, argument, Double.toString(argument));
     }
 
     /**
@@ -420,8 +507,10 @@ public class QueryBuilder {
 
             _query_string.append(query);
 
-            if (arguments != null && arguments.length > 0)
+            if (arguments != null && arguments.length > 0) {
                 Collections.addAll(_arguments, arguments);
+                Collections.addAll(_typed_arguments, (Object[]) arguments);
+            }
 
             _next_operator = null;
         }
@@ -460,7 +549,78 @@ public class QueryBuilder {
      */
     public Cursor query(SQLiteDatabase database, String table, @Nullable String[] projection,
                         @Nullable String order_by) {
-        return database.query(table, projection, _query_string.toString(), argumentsAsArray(), null, null, order_by);
+        return query(database, table, projection, order_by, null, null);
+    }
+
+    /**
+     * Queries the given table of the given database, projecting the result onto the given projection, ordering it
+     * by the given specification and limiting it to the given number of rows.
+     * @param database the given database
+     * @param table the given table
+     * @param projection the vector space on which to project the result
+     * @param order_by the order to apply to the result space
+     * @param limit the maximum number of rows, or {@code null} for all of them
+     * @param factory creates the {@link android.database.Cursor}, or {@code null} for the database's cursor, see
+     *                {@link BaseSqliteOpenHelper#cursorFactory(SQLiteDatabase)}
+     * @return a {@link android.database.Cursor} to the result
+     */
+    public Cursor query(SQLiteDatabase database, String table, @Nullable String[] projection,
+                        @Nullable String order_by, @Nullable String limit,
+                        @Nullable SQLiteDatabase.CursorFactory factory) {
+        final String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, _query_string.toString(),
+                null, null, order_by, limit);
+        return database.rawQueryWithFactory(new TypedArgumentsCursorFactory(_typed_arguments, factory), sql, null,
+                table);
+    }
+
+    /**
+     * Searches the full-text index of the given table of the given database, joining the matches back to the table and
+     * ordering them by the number of occurrences of the matching terms in the row, most first. This is a simple count,
+     * it doesn't weigh rare terms or short rows higher. The expressions of this query further filter the matches.
+     * @param database the given database
+     * @param table the table with the full-text index
+     * @param projection the vector space on which to project the result, columns of the given table
+     * @param search the FTS query
+     * @return a {@link android.database.Cursor} to the result
+     * @see SqliteMigration#createFullTextIndex(android.database.sqlite.SQLiteDatabase, String, String...)
+     */
+    public Cursor rankedSearch(SQLiteDatabase database, String table, String[] projection, String search) {
+        final String index = SqliteMigration.fullTextTable(table);
+        final StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < projection.length; i++)
+            sql.append(i == 0? "" : ", ").append(table).append('.').append(projection[i]);
+        // offsets() lists four space-separated integers per occurrence of a matching term, so counting its fields
+        // counts the occurrences
+        sql.append(" FROM ").append(table)
+           .append(" JOIN (SELECT docid, (length(_offsets) - length(replace(_offsets, ' ', '')) + 1) / 4 AS _rank")
+           .append(" FROM (SELECT docid, offsets(").append(index).append(") AS _offsets FROM ").append(index)
+           .append(" WHERE ").append(index).append(Op.MATCHES).append("?)) AS _search ON ")
+           .append(table).append('.').append(BaseColumns._ID).append(" = _search.docid");
+        if (_query_string.length() > 0)
+            sql.append(" WHERE ").append(_query_string);
+        sql.append(" ORDER BY _search._rank DESC");
+
+        final List<Object> arguments = new ArrayList<>(_typed_arguments.size() + 1);
+        arguments.add(search);
+        arguments.addAll(_typed_arguments);
+        return database.rawQueryWithFactory(new TypedArgumentsCursorFactory(arguments, null), sql.toString(), null,
+                table);
+    }
+
+    /**
+     * Reads a count or a sum from the {@linkplain SqliteMigration#createAggregate(android.database.sqlite.SQLiteDatabase,
+     * String, String, String...) aggregate} of the given table grouped by the given key, rather than scanning the
+     * table. The expressions of this query may only refer to the key, e.g. {@code key = ?} reads a single row; without
+     * expressions the aggregates of all keys are added up.
+     * @param database the given database
+     * @param table the given table
+     * @param key the column by which the aggregate is grouped
+     * @param column {@link SqliteMigration#AGGREGATE_COUNT} for the number of rows, or a summed column for its sum
+     * @return the count or the sum, {@code 0} when no row matches
+     */
+    public long aggregate(SQLiteDatabase database, String table, String key, String column) {
+        return longFromFirstRow(database, SqliteMigration.aggregateTable(table, key),
+                "ifnull(sum(" + column + "), 0)");
     }
 
     /**
@@ -653,23 +813,27 @@ public class QueryBuilder {
     }
 
     /**
-     * Queries the given table of the given database for the blob value of the given column from the first row in the result.
+     * Queries the given table of the given database for the blob value of the given column from the first row in the result,
+     * whether it is stored inline or in the {@link BlobStore}.
      * @param database the given database
      * @param table the given table
      * @param column the given column
-     * @return the value of the given column in the first row of the result
+     * @return the value of the given column in the first row of the result, or {@code null} if a blob referenced from
+     *         the {@link BlobStore} couldn't be read
      */
     @CheckForNull public byte[] blobFromFirstRow(SQLiteDatabase database, String table, String column) {
         return blobFromFirstRow(database, table, column, null);
     }
 
     /**
-     * Queries the given table of the given database for the blob value of the given column from the first row in the result.
+     * Queries the given table of the given database for the blob value of the given column from the first row in the result,
+     * whether it is stored inline or in the {@link BlobStore}.
      * @param database the given database
      * @param table the given table
      * @param column the given column
      * @param order_by the order to apply to the result space
-     * @return the value of the given column in the first row of the result
+     * @return the value of the given column in the first row of the result, or {@code null} if a blob referenced from
+     *         the {@link BlobStore} couldn't be read
      */
     @CheckForNull public byte[] blobFromFirstRow(SQLiteDatabase database, String table, String column,
                                                  @Nullable String order_by) {
@@ -679,7 +843,7 @@ public class QueryBuilder {
             cursor = query(database, table, new String[] { column }, order_by);
 
             if (cursor.moveToFirst())
-                value = cursor.getBlob(0);
+                value = blobFromCursor(cursor);
         } finally {
             //noinspection EmptyCatchBlock
             try {
@@ -760,7 +924,25 @@ public class QueryBuilder {
      * @return the number of rows affected
      */
     public int update(SQLiteDatabase database, String table, @Nullable ContentValues values) {
-        return database.update(table, values, _query_string.toString(), argumentsAsArray());
+        if (values == null || values.size() == 0) throw new IllegalArgumentException("Empty values");
+
+        final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        final List<Object> arguments = new ArrayList<>(values.size() + _typed_arguments.size());
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            sql.append(arguments.isEmpty()? "" : ", ").append(value.getKey()).append(" = ?");
+            arguments.add(value.getValue());
+        }
+        if (_query_string.length() > 0)
+            sql.append(" WHERE ").append(_query_string);
+        arguments.addAll(_typed_arguments);
+
+        final SQLiteStatement statement = database.compileStatement(sql.toString());
+        try {
+            bindArguments(statement, arguments);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
     }
 
     /**
@@ -770,7 +952,17 @@ public class QueryBuilder {
      * @return the number of rows affected
      */
     public int delete(SQLiteDatabase database, String table) {
-        return database.delete(table, _query_string.toString(), argumentsAsArray());
+        final StringBuilder sql = new StringBuilder("DELETE FROM ").append(table);
+        if (_query_string.length() > 0)
+            sql.append(" WHERE ").append(_query_string);
+
+        final SQLiteStatement statement = database.compileStatement(sql.toString());
+        try {
+            bindArguments(statement, _typed_arguments);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
     }
 
     /**
@@ -796,6 +988,21 @@ public class QueryBuilder {
         return select(uri, (String) null);
     }
 
+    /**
+     * <p>Retrieves list of {@link ActiveRecord}s that match query, projected with the given profile.</p>
+     * @param uri the URI over which to query
+     * @param profile the profile with which to project the records, use
+     *                {@link ActiveRecordFactory.Profile#LIGHT} to load the heavy columns on first access
+     * @param sort_order the order to apply to the result space
+     * @return the result
+     */
+    public <T extends ActiveRecord> List<T> select(Uri uri, ActiveRecordFactory.Profile profile,
+                                                   @Nullable String sort_order) {
+        uri = uri.buildUpon().appendQueryParameter(BaseContentProvider.PARAM_PROJECTION_PROFILE, profile.name()).build();
+        assert uri != null;
+        return select(uri, sort_order);
+    }
+
     /**
      * <p>Retrieves the first {@link ActiveRecord} that matches query.</p>
      * @param uri the URI over which to query
@@ -918,6 +1125,28 @@ public class QueryBuilder {
         return createLoader(context, uri, projection, null, should_notify);
     }
 
+    /**
+     * <p>Constructs a {@link android.content.CursorLoader} that retrieves the {@link android.database.Cursor} to only the
+     * first matches of the query, so that a list's first paint doesn't wait on filling a full
+     * {@link android.database.CursorWindow}. The rest of the matches aren't retrieved, so query again, without a
+     * limit or with a larger one, to page in more.</p>
+     * @param context the context in which to create the loader
+     * @param uri the URI over which to query
+     * @param projection the vector space on which to project the result
+     * @param sort_order the order to apply to the result space
+     * @param limit the number of first rows to retrieve
+     * @return a {@link android.content.CursorLoader} to load the {@link android.database.Cursor}
+     * @see BaseContentProvider#PARAM_LIMIT
+     */
+    public CursorLoader createLoader(Context context, Uri uri, String[] projection, @Nullable String sort_order,
+                                     @Nonnegative int limit) {
+        uri = uri.buildUpon()
+                 .appendQueryParameter(BaseContentProvider.PARAM_LIMIT, Integer.toString(limit))
+                 .build();
+
+        return new CursorLoader(context.getApplicationContext(), uri, projection, toString(), argumentsAsArray(), sort_order);
+    }
+
     /**
      * Queries over the given {@link android.net.Uri URI} for the integer value of the given column from the first row in the result.
      * @param uri the given URI
@@ -1101,21 +1330,25 @@ public class QueryBuilder {
     }
 
     /**
-     * Queries over the given {@link android.net.Uri URI} for the blob value of the given column from the first row in the result.
+     * Queries over the given {@link android.net.Uri URI} for the blob value of the given column from the first row in the result,
+     * whether it is stored inline or in the {@link BlobStore}.
      * @param uri the given URI
      * @param column the given column
-     * @return the value of the given column in the first row of the result
+     * @return the value of the given column in the first row of the result, or {@code null} if a blob referenced from
+     *         the {@link BlobStore} couldn't be read
      */
     @CheckForNull public byte[] blobFromFirstRow(Uri uri, String column) {
         return blobFromFirstRow(uri, column, null);
     }
 
     /**
-     * Queries over the given {@link android.net.Uri URI} for the integer value of the given column from the first row in the result.
+     * Queries over the given {@link android.net.Uri URI} for the blob value of the given column from the first row in the result,
+     * whether it is stored inline or in the {@link BlobStore}.
      * @param uri the given URI
      * @param column the given column
      * @param order_by the order to apply to the result space
-     * @return the value of the given column in the first row of the result
+     * @return the value of the given column in the first row of the result, or {@code null} if a blob referenced from
+     *         the {@link BlobStore} couldn't be read
      */
     @CheckForNull public byte[] blobFromFirstRow(Uri uri, String column, @Nullable String order_by) {
         Cursor cursor = null;
@@ -1125,7 +1358,7 @@ public class QueryBuilder {
             cursor = select(uri, new String[] { column }, order_by, false);
 
             if (cursor.moveToFirst())
-                value = cursor.getBlob(0);
+                value = blobFromCursor(cursor);
         } finally {
             //noinspection EmptyCatchBlock
             try {
@@ -1136,6 +1369,49 @@ public class QueryBuilder {
         return value;
     }
 
+    /**
+     * Queries over the given {@link android.net.Uri URI} for the blob value of the given column from the first row
+     * in the result, whether it is stored inline or in the {@link BlobStore}. Blobs from the {@link BlobStore} are
+     * memory-mapped rather than copied.
+     * @param uri the given URI
+     * @param column the given column
+     * @return the value of the given column in the first row of the result
+     * @throws IOException Indicates a blob referenced from the {@link BlobStore} is missing or couldn't be mapped
+     */
+    @CheckForNull public ByteBuffer blobBufferFromFirstRow(Uri uri, String column) throws IOException {
+        Cursor cursor = null;
+
+        try {
+            cursor = select(uri, new String[] { column }, null, false);
+
+            return cursor != null && cursor.moveToFirst()? new BlobStore(_context).blobFromCursor(cursor, 0) : null;
+        } finally {
+            //noinspection EmptyCatchBlock
+            try {
+                Closeables.close(cursor, true);
+            } catch (IOException _) { }
+        }
+    }
+
+    /**
+     * Queries over the given {@link android.net.Uri URI} for a stream over the blob value of the given column from the
+     * first row in the result. Unlike {@link #blobFromFirstRow(android.net.Uri, String)}, the blob is read in chunks,
+     * so it can exceed the {@link android.database.CursorWindow} size. Blobs kept in the {@link BlobStore} are read
+     * from their file.
+     * @param uri the given URI
+     * @param column the given column
+     * @return a stream over the value of the given column in the first row of the result, or {@code null} if there
+     *         is no such row or the value is {@code null}
+     * @throws IOException Indicates a blob referenced from the {@link BlobStore} is missing, or the value is TEXT
+     *         that doesn't reference one
+     */
+    @CheckForNull public InputStream blobStream(Uri uri, String column) throws IOException {
+        uri = uri.buildUpon().appendQueryParameter(BaseContentProvider.PARAM_SHOULD_NOTIFY, Boolean.toString(false)).build();
+        assert uri != null;
+        return BlobInputStream.open(_context.getContentResolver(), new BlobStore(_context), uri, column, toString(),
+                argumentsAsArray());
+    }
+
     /**
      * Queries over the given {@link android.net.Uri URI} for the boolean value of the given column from the first row in the result.
      * @param uri the given URI
@@ -1276,7 +1552,54 @@ public class QueryBuilder {
     public void reset() {
         _query_string.setLength(0);
         _arguments.clear();
+        _typed_arguments.clear();
+        _has_blob_arguments = false;
+        _next_operator = null;
+    }
+
+    /**
+     * <p>Adds an expression with the given argument, bound with its own type when run directly against a
+     * {@link SQLiteDatabase}.</p>
+     * @param column the column on the left side of the expression
+     * @param operator the operator
+     * @param argument the argument, bound with its own type
+     * @param text_argument the argument as passed through a {@link android.content.ContentResolver}
+     * @return the {@link com.imminentmeals.android.base.utilities.database.QueryBuilder}
+     */
+    private QueryBuilder expression(String column, String operator, @Nullable Object argument,
+                                    @Nullable String text_argument) {
+        ensureOp();
+        _query_string.append(column).append(operator).append("?");
+        _arguments.add(text_argument);
+        _typed_arguments.add(argument);
         _next_operator = null;
+
+        return this;
+    }
+
+    /**
+     * <p>Binds each of the given arguments to the given program with its own type.</p>
+     * @param program the given program
+     * @param arguments the given arguments
+     */
+    /* package */static void bindArguments(SQLiteProgram program, List<?> arguments) {
+        // Bind indices are 1-based
+        for (int i = 0; i < arguments.size(); i++) {
+            final Object argument = arguments.get(i);
+            if (argument == null)
+                program.bindNull(i + 1);
+            else if (argument instanceof Long || argument instanceof Integer || argument instanceof Short
+                    || argument instanceof Byte)
+                program.bindLong(i + 1, ((Number) argument).longValue());
+            else if (argument instanceof Double || argument instanceof Float)
+                program.bindDouble(i + 1, ((Number) argument).doubleValue());
+            else if (argument instanceof Boolean)
+                program.bindLong(i + 1, (Boolean) argument? 1 : 0);
+            else if (argument instanceof byte[])
+                program.bindBlob(i + 1, (byte[]) argument);
+            else
+                program.bindString(i + 1, argument.toString());
+        }
     }
 
     /**
@@ -1293,17 +1616,71 @@ public class QueryBuilder {
         }
     }
 
+    /**
+     * Reads the blob in the first column of the cursor's current row, whether it is stored inline or in the
+     * {@link BlobStore}.
+     * @param cursor the given cursor
+     * @return the blob, or {@code null} if the value is {@code null} or a referenced blob couldn't be read
+     */
+    @CheckForNull private byte[] blobFromCursor(Cursor cursor) {
+        final ByteBuffer blob;
+        try {
+            blob = new BlobStore(_context).blobFromCursor(cursor, 0);
+        } catch (IOException error) {
+            AUTOTAGLOGE(error, "Unable to read blob referenced from %s", cursor.getColumnName(0));
+            return null;
+        }
+        if (blob == null) return null;
+        // Inline blobs are wrapped, stored blobs are mapped and have to be copied
+        if (blob.hasArray() && blob.arrayOffset() == 0 && blob.remaining() == blob.array().length) return blob.array();
+        final byte[] value = new byte[blob.remaining()];
+        blob.get(value);
+        return value;
+    }
+
     @CheckForNull private BaseContentProvider contentProvider(Uri uri) {
         final ContentProviderClient client = _context.getContentResolver().acquireContentProviderClient(uri);
         return client != null? (BaseContentProvider) client.getLocalContentProvider() : null;
     }
 
+    /**
+     * <p>Creates cursors whose query binds the given arguments with their own types, rather than as Strings. The
+     * cursors themselves are created by the given factory, when there is one, or else by the factory of the helper
+     * that opened the database, since passing this factory replaces the database's.</p>
+     */
+    /* package */static class TypedArgumentsCursorFactory implements SQLiteDatabase.CursorFactory {
+
+        TypedArgumentsCursorFactory(List<Object> arguments, @Nullable SQLiteDatabase.CursorFactory factory) {
+            _arguments = arguments;
+            _factory = factory;
+        }
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase database, SQLiteCursorDriver driver, String edit_table,
+                                SQLiteQuery query) {
+            bindArguments(query, _arguments);
+            final SQLiteDatabase.CursorFactory factory = _factory != null
+                    ? _factory
+                    : BaseSqliteOpenHelper.cursorFactory(database);
+            return factory != null
+                    ? factory.newCursor(database, driver, edit_table, query)
+                    : new SQLiteCursor(driver, edit_table, query);
+        }
+
+        private final List<Object> _arguments;
+        private final SQLiteDatabase.CursorFactory _factory;
+    }
+
     /** The AND operator */
     private static final String AND = " AND ";
     /** The OR operator */
     private static final String OR = " OR ";
     private StringBuilder _query_string;
     private List<String> _arguments = newArrayList();
+    /** The arguments with their own types, bound when running directly against a {@link SQLiteDatabase} */
+    private final List<Object> _typed_arguments = newArrayList();
+    /** Indicates that an argument is a blob, which can't be passed through a {@link android.content.ContentResolver} */
+    private boolean _has_blob_arguments;
     private String _next_operator = null;
     private final Context _context;
 }
@@ -8,10 +8,14 @@
  *******************************************************************************/
 package com.imminentmeals.android.base.utilities.database;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.provider.BaseColumns;
 
 import java.util.Locale;
 
+import javax.annotation.Nonnull;
+
 import static android.text.TextUtils.join;
 
 /**
@@ -29,13 +33,205 @@ public abstract class SqliteMigration {
         return uniqueKeyClause(_SKIP_ON_CONFLICT, keys);
     }
 
+    /**
+     * <p>Retrieves the name of the full-text index of the given table.</p>
+     * @param table the given table
+     * @return the name of the FTS4 table that indexes the given table
+     */
+    @Nonnull public static String fullTextTable(String table) {
+        return table + _FULL_TEXT_TABLE_SUFFIX;
+    }
+
+    /**
+     * <p>Creates a full-text index over the given columns of the given table: an FTS4 table, whose docid is the
+     * {@link BaseColumns#_ID} of the indexed row, and the triggers that keep it in sync with the table. Rows already
+     * in the table are indexed. Search it with {@link QueryBuilder#expressionMatches(String, String)}.</p>
+     *
+     * <p>Like {@link #createAggregate(SQLiteDatabase, String, String, String...)}, the index drops a row replaced by a
+     * {@linkplain #replaceOnConflictKeys(String...) conflict} only with
+     * {@linkplain #enableRecursiveTriggers(SQLiteDatabase) recursive triggers}, which are enabled here too.</p>
+     * @param database the database
+     * @param table the given table
+     * @param columns the TEXT columns to index
+     */
+    protected void createFullTextIndex(SQLiteDatabase database, String table, String... columns) {
+        enableRecursiveTriggers(database);
+        final String index = fullTextTable(table);
+        final String indexed_columns = join(", ", columns);
+        final String new_values = "new." + join(", new.", columns);
+        final String insert = "INSERT INTO " + index + " (docid, " + indexed_columns + ") VALUES (new."
+                + BaseColumns._ID + ", " + new_values + "); ";
+        final String delete = "DELETE FROM " + index + " WHERE docid = old." + BaseColumns._ID + "; ";
+
+        database.execSQL(CREATE_VIRTUAL_TABLE + index + " USING fts4(" + indexed_columns + ")");
+        database.execSQL(CREATE_TRIGGER + index + "_insert AFTER INSERT ON " + table
+                + " BEGIN " + insert + "END");
+        database.execSQL(CREATE_TRIGGER + index + "_update AFTER UPDATE OF " + BaseColumns._ID + ", "
+                + indexed_columns + " ON " + table + " BEGIN " + delete + insert + "END");
+        database.execSQL(CREATE_TRIGGER + index + "_delete AFTER DELETE ON " + table
+                + " BEGIN " + delete + "END");
+        database.execSQL("INSERT INTO " + index + " (docid, " + indexed_columns + ") SELECT " + BaseColumns._ID
+                + ", " + indexed_columns + " FROM " + table);
+    }
+
+    /**
+     * <p>Drops the full-text index of the given table and its triggers.</p>
+     * @param database the database
+     * @param table the given table
+     */
+    protected void dropFullTextIndex(SQLiteDatabase database, String table) {
+        final String index = fullTextTable(table);
+        database.execSQL("DROP TRIGGER IF EXISTS " + index + "_insert");
+        database.execSQL("DROP TRIGGER IF EXISTS " + index + "_update");
+        database.execSQL("DROP TRIGGER IF EXISTS " + index + "_delete");
+        database.execSQL("DROP TABLE IF EXISTS " + index);
+    }
+
+    /**
+     * <p>Retrieves the name of the aggregate table of the given table, grouped by the given key.</p>
+     * @param table the given table
+     * @param key the column by which the rows are grouped
+     * @return the name of the table that holds the aggregates
+     */
+    @Nonnull public static String aggregateTable(String table, String key) {
+        return table + "_by_" + key + _AGGREGATE_TABLE_SUFFIX;
+    }
+
+    /**
+     * <p>Creates an aggregate of the given table, grouped by the given key: a table with a row per key holding the
+     * number of rows with that key, in {@link #AGGREGATE_COUNT}, and the sum of each of the given columns over those
+     * rows, in a column of the same name. Triggers keep it in sync with the table, so that
+     * {@link QueryBuilder#aggregate(android.database.sqlite.SQLiteDatabase, String, String, String)} reads a count or a
+     * sum from a single row instead of scanning the table. Rows already in the table are aggregated, rows with a
+     * {@code null} key aren't.</p>
+     *
+     * <p>A row replaced by a {@linkplain #replaceOnConflictKeys(String...) conflict} only fires the delete trigger with
+     * {@linkplain #enableRecursiveTriggers(SQLiteDatabase) recursive triggers}, which {@link BaseSqliteOpenHelper}
+     * enables on the databases it opens, and which are enabled here for the rest of the migration.</p>
+     * @param database the database
+     * @param table the given table
+     * @param key the column by which the rows are grouped
+     * @param summed_columns the INTEGER columns to sum
+     */
+    protected void createAggregate(SQLiteDatabase database, String table, String key, String... summed_columns) {
+        enableRecursiveTriggers(database);
+        final String aggregate = aggregateTable(table, key);
+        // The key keeps its type, so that its arguments compare the same way as against the table, but isn't the
+        // PRIMARY KEY, which would make an INTEGER key an alias of the rowid that rejects any other value
+        final StringBuilder columns = new StringBuilder(key).append(' ').append(declaredType(database, table, key))
+                .append(" UNIQUE NOT NULL, ")
+                .append(AGGREGATE_COUNT).append(_IS_NON_NULL_ZERO);
+        final StringBuilder add = new StringBuilder(AGGREGATE_COUNT).append(" = ").append(AGGREGATE_COUNT)
+                .append(" + 1");
+        final StringBuilder subtract = new StringBuilder(AGGREGATE_COUNT).append(" = ").append(AGGREGATE_COUNT)
+                .append(" - 1");
+        final StringBuilder sums = new StringBuilder("count(*)");
+        for (String column : summed_columns) {
+            columns.append(", ").append(column).append(_IS_NON_NULL_ZERO);
+            add.append(", ").append(column).append(" = ").append(column).append(" + ifnull(new.").append(column)
+               .append(", 0)");
+            subtract.append(", ").append(column).append(" = ").append(column).append(" - ifnull(old.")
+                    .append(column).append(", 0)");
+            sums.append(", ifnull(sum(").append(column).append("), 0)");
+        }
+        final String insert = " WHEN new." + key + " NOT NULL BEGIN INSERT OR IGNORE INTO " + aggregate + " ("
+                + key + ") VALUES (new." + key + "); UPDATE " + aggregate + " SET " + add + " WHERE " + key
+                + " = new." + key + "; END";
+        final String delete = " WHEN old." + key + " NOT NULL BEGIN UPDATE " + aggregate + " SET " + subtract
+                + " WHERE " + key + " = old." + key + "; DELETE FROM " + aggregate + " WHERE " + key + " = old."
+                + key + " AND " + AGGREGATE_COUNT + " = 0; END";
+        final String updated_columns = summed_columns.length == 0? key : key + ", " + join(", ", summed_columns);
+
+        database.execSQL(CREATE_TABLE + aggregate + " (" + columns + ")");
+        database.execSQL(CREATE_TRIGGER + aggregate + "_insert AFTER INSERT ON " + table + insert);
+        database.execSQL(CREATE_TRIGGER + aggregate + "_update_old AFTER UPDATE OF " + updated_columns + " ON "
+                + table + delete);
+        database.execSQL(CREATE_TRIGGER + aggregate + "_update_new AFTER UPDATE OF " + updated_columns + " ON "
+                + table + insert);
+        database.execSQL(CREATE_TRIGGER + aggregate + "_delete AFTER DELETE ON " + table + delete);
+        database.execSQL("INSERT INTO " + aggregate + " (" + key + ", " + AGGREGATE_COUNT
+                + (summed_columns.length == 0? "" : ", " + join(", ", summed_columns)) + ") SELECT " + key + ", "
+                + sums + " FROM " + table + " WHERE " + key + " NOT NULL GROUP BY " + key);
+    }
+
+    /**
+     * <p>Enables recursive triggers on the given database's connection, so that rows deleted to resolve a conflict
+     * with {@code REPLACE} fire the delete triggers that keep full-text indexes and aggregates in sync.</p>
+     * @param database the given database
+     */
+    public static void enableRecursiveTriggers(SQLiteDatabase database) {
+        database.execSQL("PRAGMA recursive_triggers = ON");
+    }
+
+    /**
+     * <p>Drops the aggregate of the given table, grouped by the given key, and its triggers.</p>
+     * @param database the database
+     * @param table the given table
+     * @param key the column by which the rows are grouped
+     */
+    protected void dropAggregate(SQLiteDatabase database, String table, String key) {
+        final String aggregate = aggregateTable(table, key);
+        database.execSQL("DROP TRIGGER IF EXISTS " + aggregate + "_insert");
+        database.execSQL("DROP TRIGGER IF EXISTS " + aggregate + "_update_old");
+        database.execSQL("DROP TRIGGER IF EXISTS " + aggregate + "_update_new");
+        database.execSQL("DROP TRIGGER IF EXISTS " + aggregate + "_delete");
+        database.execSQL("DROP TABLE IF EXISTS " + aggregate);
+    }
+
+    /**
+     * <p>Retrieves the name of the column that holds the blind index of the given encrypted column, see
+     * {@link ValuesBuilder#putEncrypted(com.imminentmeals.android.base.utilities.CryptographyUtilities, String,
+     * String)}.</p>
+     * @param column the given column
+     * @return the name of the blind index column
+     */
+    @Nonnull public static String blindIndexColumn(String column) {
+        return column + _BLIND_INDEX_COLUMN_SUFFIX;
+    }
+
+    /**
+     * <p>Adds the blind index column of the given encrypted column to the given table, and indexes it, so that
+     * {@link QueryBuilder#expressionEncryptedEquals(String, String,
+     * com.imminentmeals.android.base.utilities.CryptographyUtilities)} seeks rather than scans. Rows already in the
+     * table have no blind index until their value is written again.</p>
+     * @param database the database
+     * @param table the given table
+     * @param column the given encrypted column
+     */
+    protected void addBlindIndex(SQLiteDatabase database, String table, String column) {
+        final String blind_index = blindIndexColumn(column);
+        database.execSQL("ALTER TABLE " + table + " ADD COLUMN " + blind_index + IS_TEXT);
+        database.execSQL("CREATE INDEX " + table + "_" + blind_index + " ON " + table + " (" + blind_index + ")");
+    }
+
+    /**
+     * <p>Retrieves the declared type of the given column of the given table.</p>
+     * @return the declared type, or an empty String if it has none
+     */
+    @Nonnull private static String declaredType(SQLiteDatabase database, String table, String column) {
+        final Cursor cursor = database.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            final int name_index = cursor.getColumnIndexOrThrow("name");
+            final int type_index = cursor.getColumnIndexOrThrow("type");
+            while (cursor.moveToNext())
+                if (column.equalsIgnoreCase(cursor.getString(name_index)))
+                    return cursor.getString(type_index);
+            return "";
+        } finally {
+            cursor.close();
+        }
+    }
+
     private String uniqueKeyClause(String format, String... keys) {
         return String.format(Locale.US, format, join(",", keys));
     }
 
+    /** Column of an aggregate table that holds the number of rows with each key */
+    public static final String AGGREGATE_COUNT = "_count";
     protected static final String CREATE_TABLE = "CREATE TABLE ";
     protected static final String CREATE_TRIGGER = "CREATE TRIGGER ";
     protected static final String CREATE_VIEW = "CREATE VIEW ";
+    protected static final String CREATE_VIRTUAL_TABLE = "CREATE VIRTUAL TABLE ";
     protected static final String IS_INTEGER_PRIMARY_KEY = " INTEGER PRIMARY KEY AUTOINCREMENT";
     protected static final String IS_INTEGER = " INTEGER";
     protected static final String IS_NON_NULL_INTEGER = " INTEGER NOT NULL";
@@ -50,4 +246,8 @@ public abstract class SqliteMigration {
     protected static final String IS_DEFERRABLE_AND = IS_DEFERRABLE + ", ";
     private static final String _REPLACE_ON_CONFLICT = "UNIQUE (%s) ON CONFLICT REPLACE";
     private static final String _SKIP_ON_CONFLICT = "UNIQUE (%s) ON CONFLICT IGNORE";
+    private static final String _FULL_TEXT_TABLE_SUFFIX = "_fts";
+    private static final String _AGGREGATE_TABLE_SUFFIX = "_aggregate";
+    private static final String _BLIND_INDEX_COLUMN_SUFFIX = "_blind_index";
+    private static final String _IS_NON_NULL_ZERO = " INTEGER NOT NULL DEFAULT 0";
 }
@@ -14,16 +14,24 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.net.Uri;
 
+import com.imminentmeals.android.base.utilities.CryptographyUtilities;
+import com.imminentmeals.android.base.utilities.ThreadLocalPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
-import nf.fr.eraasoft.pool.ObjectPool;
-import nf.fr.eraasoft.pool.PoolException;
-
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
+import static com.imminentmeals.android.base.utilities.LogUtilities.AUTOTAGLOGE;
 
 
 /**
@@ -43,6 +51,7 @@ public abstract class ValuesBuilder {
         _query_parameters = newHashMap();
         _values = new ContentValues();
         _content_value_pool = null;
+        _context = context;
     }
 
     /**
@@ -51,12 +60,13 @@ public abstract class ValuesBuilder {
      * @param content_uri The content URI on which the builder operates
      * @param content_value_pool The pool from which to retrieve ContentValue objects
      */
-    protected ValuesBuilder(Context context, Uri content_uri, ObjectPool<ContentValues> content_value_pool) {
+    protected ValuesBuilder(Context context, Uri content_uri, ThreadLocalPool<ContentValues> content_value_pool) {
         _content = context.getContentResolver();
         _content_uri = content_uri;
         _query_parameters = newHashMap();
         _values = null;
         _content_value_pool = content_value_pool;
+        _context = context;
     }
 
     /**
@@ -349,6 +359,70 @@ public abstract class ValuesBuilder {
         }
     }
 
+    /**
+     * <p>Drops every value that isn't for one of the given columns, so that only those columns are written.</p>
+     * @param columns the columns to keep, or {@code null} to keep every value
+     */
+    /* package */void retainColumns(@Nullable Set<String> columns) {
+        if (columns == null) return;
+
+        final ContentValues values = contentValues();
+        for (String column : newArrayList(values.keySet()))
+            if (!columns.contains(column)) values.remove(column);
+    }
+
+    /**
+     * <p>Sets the given value for the given column, encrypted, along with its blind index, a keyed hash of the value,
+     * in {@link SqliteMigration#blindIndexColumn(String)}. Rows can then be matched on the value without deciphering
+     * them, see {@link QueryBuilder#expressionEncryptedEquals(String, String, CryptographyUtilities)}. Values are
+     * matched exactly, so normalize them, e.g. lower case e-mail addresses, before setting them.</p>
+     * @param crypto the cryptography utilities that hold the key
+     * @param column the given column
+     * @param value the given value
+     * @throws GeneralSecurityException Indicates the value couldn't be encrypted
+     * @throws UnsupportedEncodingException Indicates the String encoding isn't valid
+     */
+    protected void putEncrypted(CryptographyUtilities crypto, String column, @Nullable String value)
+            throws GeneralSecurityException, UnsupportedEncodingException {
+        final String blind_index = SqliteMigration.blindIndexColumn(column);
+        if (value == null) {
+            contentValues().putNull(column);
+            contentValues().putNull(blind_index);
+            return;
+        }
+        contentValues().put(column, crypto.encrypt(value));
+        contentValues().put(blind_index, crypto.blindIndex(column, value));
+    }
+
+    /**
+     * <p>Sets the given blob for the given column. Blobs over {@value BlobStore#EXTERNAL_BLOB_THRESHOLD} bytes are
+     * written to the {@link BlobStore} and the column only keeps their hash, which keeps the database small.</p>
+     * @param column the given column
+     * @param blob the given blob
+     */
+    protected void putBlob(String column, @Nullable byte[] blob) {
+        if (blob != null && blob.length > BlobStore.EXTERNAL_BLOB_THRESHOLD)
+            try {
+                contentValues().put(column, blobStore().put(blob));
+                return;
+            } catch (IOException error) {
+                AUTOTAGLOGE(error, "Unable to store blob for %s, storing it in the database instead", column);
+            }
+        contentValues().put(column, blob);
+    }
+
+    /**
+     * <p>Writes the blob read from the given stream to the {@link BlobStore} and sets its hash for the given
+     * column. This is how to store a blob too large to hold in memory: SQLite can't write a blob in pieces through
+     * the Android APIs without reading and rewriting the whole of it on every piece.</p>
+     * @param column the given column
+     * @param input the stream of the blob
+     * @throws IOException Indicates the blob couldn't be read or stored
+     */
+    protected void putBlob(String column, InputStream input) throws IOException {
+        contentValues().put(column, blobStore().put(input));
+    }
+
     public void appendQueryParameter(String key, String value) {
         _query_parameters.put(key, value);
     }
@@ -370,22 +444,34 @@ public abstract class ValuesBuilder {
         return uri;
     }
 
+    /**
+     * <p>Retrieves the {@link BlobStore}, creating it on first use, since most builders never write a blob.</p>
+     */
+    @Nonnull private BlobStore blobStore() {
+        if (_blob_store == null) _blob_store = new BlobStore(_context);
+        return _blob_store;
+    }
+
     @Nonnull protected ContentValues contentValues() {
-        try {
-            if (_values == null) _values = _content_value_pool.getObj();
-            return _values;
-        } catch (PoolException _) {
-            return new ContentValues();
-        }
+        if (_values == null) _values = _content_value_pool.borrow();
+        return _values;
     }
 
     private void cleanUp() {
-        _values.clear();
-        if (_content_value_pool != null) _content_value_pool.returnObj(_values);
+        if (_content_value_pool == null)
+            _values.clear();
+        else {
+            // The pool clears the values, which this builder borrows again on the next write
+            _content_value_pool.release(_values);
+            _values = null;
+        }
     }
 
     private ContentValues _values;
-    private final ObjectPool<ContentValues> _content_value_pool;
+    private final ThreadLocalPool<ContentValues> _content_value_pool;
+    private final Context _context;
+    /** Created by {@link #blobStore()} */
+    private BlobStore _blob_store;
     private Uri _content_uri;
     private ContentResolver _content;
     private HashMap<String, String> _query_parameters;
@@ -0,0 +1,217 @@
+package com.imminentmeals.android.base.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for the authentication token cache of {@link AndroidCookieStore}.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class AndroidCookieStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialize() throws Exception {
+        _settings = Robolectric.application.getSharedPreferences("cookies", Context.MODE_PRIVATE);
+        _settings.edit().clear().commit();
+        _key = CryptographyUtilities.generateKey();
+        _crypto = new CountingCryptographyUtilities(_key);
+        _cookie_jar = new PersistentCookieStore(new File(folder.getRoot(), "cookies"), _crypto);
+        _store = new AndroidCookieStore(_settings, _crypto, _AUTH_TOKEN, _cookie_jar);
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        _cookie_jar.flush();
+    }
+
+    @Test
+    public void testDeciphersStoredTokenOnce() throws Exception {
+        _settings.edit().putString(AndroidCookieStore.KEY_AUTH_TOKEN, _crypto.encrypt("stored")).commit();
+
+        assertThat(authToken(_store.get(_API))).isEqualTo("stored");
+        assertThat(authToken(_store.get(_API))).isEqualTo("stored");
+        assertThat(_crypto.decipher_count.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testWritesThroughToCache() throws Exception {
+        _store.add(_API, new HttpCookie(_AUTH_TOKEN, "written"));
+
+        assertThat(authToken(_store.get(_API))).isEqualTo("written");
+        assertThat(_crypto.decipher_count.get()).isEqualTo(0);
+        // Stored for the next launch
+        assertThat(authToken(new AndroidCookieStore(_settings, _crypto, _AUTH_TOKEN, _cookie_jar).get(_API)))
+                .isEqualTo("written");
+    }
+
+    @Test
+    public void testInvalidatedByChangesFromElsewhere() throws Exception {
+        _store.add(_API, new HttpCookie(_AUTH_TOKEN, "written"));
+        assertThat(authToken(_store.get(_API))).isEqualTo("written");
+
+        _settings.edit().putString(AndroidCookieStore.KEY_AUTH_TOKEN, _crypto.encrypt("changed")).commit();
+
+        assertThat(authToken(_store.get(_API))).isEqualTo("changed");
+        _settings.edit().remove(AndroidCookieStore.KEY_AUTH_TOKEN).commit();
+        assertThat(authToken(_store.get(_API))).isNull();
+    }
+
+    @Test(timeout = 10000)
+    public void testInvalidatesWhileDeciphering() throws Exception {
+        _settings.edit().putString(AndroidCookieStore.KEY_AUTH_TOKEN, _crypto.encrypt("stored")).commit();
+        final CountDownLatch deciphering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingCryptographyUtilities crypto = new BlockingCryptographyUtilities(_key, deciphering, release);
+        final AndroidCookieStore store = new AndroidCookieStore(_settings, crypto, _AUTH_TOKEN, _cookie_jar);
+        final AtomicReference<String> loaded = new AtomicReference<>();
+        final Thread request = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loaded.set(authToken(store.get(_API)));
+            }
+        });
+        request.start();
+        deciphering.await();
+
+        // Notifies the listener on this thread, which would wait forever if it took the store's lock
+        _settings.edit().putString(AndroidCookieStore.KEY_AUTH_TOKEN, _crypto.encrypt("changed")).commit();
+        release.countDown();
+        request.join();
+
+        assertThat(loaded.get()).isEqualTo("stored");
+        // The token deciphered before the change isn't cached
+        assertThat(authToken(store.get(_API))).isEqualTo("changed");
+    }
+
+    @Test(timeout = 10000)
+    public void testInvalidatesWhileEncrypting() throws Exception {
+        final CountDownLatch encrypting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingCryptographyUtilities crypto = new BlockingCryptographyUtilities(_key, encrypting, release);
+        final AndroidCookieStore store = new AndroidCookieStore(_settings, crypto, _AUTH_TOKEN, _cookie_jar);
+        final Thread request = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store.add(_API, new HttpCookie(_AUTH_TOKEN, "written"));
+            }
+        });
+        request.start();
+        encrypting.await();
+
+        // Notifies the listener on this thread, which would wait forever if the write held the store's lock
+        _settings.edit().putString(AndroidCookieStore.KEY_AUTH_TOKEN, _crypto.encrypt("changed")).commit();
+        release.countDown();
+        request.join();
+
+        assertThat(authToken(store.get(_API))).isEqualTo("written");
+    }
+
+    private static String authToken(List<HttpCookie> cookies) {
+        for (HttpCookie cookie : cookies)
+            if (cookie.getName().equals(_AUTH_TOKEN)) return cookie.getValue();
+        return null;
+    }
+
+    /**
+     * <p>Counts the tokens deciphered.</p>
+     */
+    private static class CountingCryptographyUtilities extends CryptographyUtilities {
+        final AtomicInteger decipher_count = new AtomicInteger();
+
+        CountingCryptographyUtilities(SecretKey secret_key) {
+            super(secret_key);
+        }
+
+        @Override
+        public String decipher(String digest)
+                throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException,
+                       NoSuchPaddingException, UnsupportedEncodingException, InvalidAlgorithmParameterException {
+            decipher_count.incrementAndGet();
+            return super.decipher(digest);
+        }
+    }
+
+    /**
+     * <p>Waits to be released before encrypting or deciphering its first token, as if waiting for the key.</p>
+     */
+    private static class BlockingCryptographyUtilities extends CryptographyUtilities {
+
+        BlockingCryptographyUtilities(SecretKey secret_key, CountDownLatch blocked, CountDownLatch release) {
+            super(secret_key);
+            _blocked = blocked;
+            _release = release;
+        }
+
+        @Override
+        public String encrypt(String message)
+                throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException,
+                       NoSuchPaddingException, UnsupportedEncodingException, InvalidAlgorithmParameterException {
+            awaitRelease();
+            return super.encrypt(message);
+        }
+
+        @Override
+        public String decipher(String digest)
+                throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchAlgorithmException,
+                       NoSuchPaddingException, UnsupportedEncodingException, InvalidAlgorithmParameterException {
+            awaitRelease();
+            return super.decipher(digest);
+        }
+
+        private void awaitRelease() {
+            if (_blocked.getCount() == 0) return;
+            _blocked.countDown();
+            try {
+                _release.await();
+            } catch (InterruptedException error) {
+                throw new IllegalStateException(error);
+            }
+        }
+
+        private final CountDownLatch _blocked;
+        private final CountDownLatch _release;
+    }
+
+    private static final String _AUTH_TOKEN = "auth_token";
+    private static final URI _API = URI.create("https://api.example.com/");
+    private SharedPreferences _settings;
+    private SecretKey _key;
+    private CountingCryptographyUtilities _crypto;
+    private PersistentCookieStore _cookie_jar;
+    private AndroidCookieStore _store;
+}
@@ -0,0 +1,82 @@
+package com.imminentmeals.android.base.utilities;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/**
+ * <p>Test suite for {@link Codecs}.</p>
+ * @author Dandre Allison
+ */
+public class CodecsTest {
+
+    @Test
+    public void testEncodesHex() {
+        final byte[] bytes = { 0x00, 0x0F, (byte) 0x80, (byte) 0xAB, 0x7F, (byte) 0xFF };
+
+        assertThat(Codecs.toHex(bytes, Codecs.UPPER_CASE)).isEqualTo("000F80AB7FFF");
+        assertThat(Codecs.toHex(bytes, Codecs.LOWER_CASE)).isEqualTo("000f80ab7fff");
+        assertThat(Codecs.fromHex("000f80AB7fFF")).isEqualTo(bytes);
+    }
+
+    @Test
+    public void testEncodesBase64Vectors() {
+        // RFC 4648, section 10
+        final String[][] vectors = { { "", "" }, { "f", "Zg==" }, { "fo", "Zm8=" }, { "foo", "Zm9v" },
+                                     { "foob", "Zm9vYg==" }, { "fooba", "Zm9vYmE=" }, { "foobar", "Zm9vYmFy" } };
+        for (String[] vector : vectors) {
+            assertThat(Codecs.toBase64(vector[0].getBytes())).isEqualTo(vector[1]);
+            assertThat(new String(Codecs.fromBase64(vector[1]))).isEqualTo(vector[0]);
+        }
+    }
+
+    @Test
+    public void testDecodesBase64IgnoringWhitespace() {
+        assertThat(new String(Codecs.fromBase64("Zm9v\nYmE=\n"))).isEqualTo("fooba");
+    }
+
+    @Test
+    public void testBuffersMatchArrays() {
+        final byte[] bytes = new byte[1000];
+        new Random(42).nextBytes(bytes);
+
+        final CharBuffer hex = CharBuffer.allocate(2 * bytes.length);
+        Codecs.encodeHex(ByteBuffer.wrap(bytes), hex, Codecs.UPPER_CASE);
+        hex.flip();
+        assertThat(hex.toString()).isEqualTo(Codecs.toHex(bytes, Codecs.UPPER_CASE));
+        final ByteBuffer decoded_hex = ByteBuffer.allocateDirect(bytes.length);
+        Codecs.decodeHex(hex, decoded_hex);
+        assertThat(decoded_hex.position()).isEqualTo(bytes.length);
+
+        for (int length = 0; length < 4; length++) {
+            final ByteBuffer source = ByteBuffer.wrap(bytes, 0, bytes.length - length);
+            final CharBuffer base64 = CharBuffer.allocate(Codecs.base64Length(source.remaining()));
+            Codecs.encodeBase64(source, base64);
+            base64.flip();
+            final String expected = Codecs.toBase64(Arrays.copyOf(bytes, bytes.length - length));
+            assertThat(base64.toString()).isEqualTo(expected);
+            final ByteBuffer decoded = ByteBuffer.allocate(bytes.length);
+            Codecs.decodeBase64(base64, decoded);
+            assertThat(decoded.position()).isEqualTo(bytes.length - length);
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidHex() {
+        try {
+            Codecs.fromHex("0G");
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException _) { }
+    }
+
+    @Test
+    public void testMd5IsLowerCaseHex() {
+        assertThat(StringUtilities.md5("")).isEqualTo("d41d8cd98f00b204e9800998ecf8427e");
+    }
+}
@@ -6,10 +6,17 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import static com.google.common.collect.Lists.newArrayList;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
 
@@ -57,6 +64,140 @@ public class CryptographyUtilitiesTest {
         }
     }
 
+    @Test
+    public void testEncryptAndDecipherStreams() throws Exception {
+        if (_input == null) return;
+
+        final byte[] message = _input.getBytes("UTF-8");
+        final ByteArrayOutputStream digest = new ByteArrayOutputStream();
+        _crypto.encrypt(new ByteArrayInputStream(message), digest);
+        final ByteArrayOutputStream clear = new ByteArrayOutputStream();
+        _crypto.decipher(new ByteArrayInputStream(digest.toByteArray()), clear);
+
+        assertThat(clear.toByteArray()).isEqualTo(message);
+    }
+
+    @Test
+    public void testEncryptAndDecipherStreamsOfSeveralSegments() throws Exception {
+        if (_input == null) return;
+
+        // Several 64 KiB segments, then a partial one
+        final byte[] message = repeat(_input + "segment", 200 * 1024);
+        final byte[] digest = encrypt(message);
+
+        assertThat(decipher(digest)).isEqualTo(message);
+    }
+
+    @Test
+    public void testTruncatedStreamFails() throws Exception {
+        if (_input == null) return;
+
+        final byte[] digest = encrypt(repeat(_input + "segment", 3 * _SEGMENT_SIZE));
+        // Cut off after the first segment, which wasn't written as the last
+        try {
+            decipher(Arrays.copyOf(digest, _STREAM_HEADER_LENGTH + _SEGMENT_SIZE + _TAG_LENGTH));
+            failBecauseExceptionWasNotThrown(BadPaddingException.class);
+        } catch (BadPaddingException _) { }
+        // Cut off with less than a tag left of the second segment
+        try {
+            decipher(Arrays.copyOf(digest, _STREAM_HEADER_LENGTH + _SEGMENT_SIZE + _TAG_LENGTH + 5));
+            failBecauseExceptionWasNotThrown(IllegalBlockSizeException.class);
+        } catch (IllegalBlockSizeException _) { }
+    }
+
+    @Test
+    public void testReorderedStreamFails() throws Exception {
+        if (_input == null) return;
+
+        final byte[] digest = encrypt(repeat(_input + "segment", 2 * _SEGMENT_SIZE + 1));
+        final int segment_length = _SEGMENT_SIZE + _TAG_LENGTH;
+        final byte[] reordered = digest.clone();
+        System.arraycopy(digest, _STREAM_HEADER_LENGTH, reordered, _STREAM_HEADER_LENGTH + segment_length,
+                segment_length);
+        System.arraycopy(digest, _STREAM_HEADER_LENGTH + segment_length, reordered, _STREAM_HEADER_LENGTH,
+                segment_length);
+        try {
+            decipher(reordered);
+            failBecauseExceptionWasNotThrown(BadPaddingException.class);
+        } catch (BadPaddingException _) { }
+    }
+
+    @Test
+    public void testTamperedDigestFails() throws Exception {
+        if (_input == null) return;
+
+        final char[] digest = _crypto.encrypt(_input).toCharArray();
+        final int last = digest.length - 1;
+        digest[last] = digest[last] == '0'? '1' : '0';
+        try {
+            _crypto.decipher(new String(digest));
+            failBecauseExceptionWasNotThrown(BadPaddingException.class);
+        } catch (BadPaddingException _) { }
+    }
+
+    @Test
+    public void testEncryptAndDecipherAllPreservesOrder() throws Exception {
+        if (_input == null) return;
+
+        final List<String> messages = newArrayList();
+        for (int i = 0; i < 1000; i++)
+            messages.add(_input + i);
+
+        assertThat(_crypto.decipherAll(_crypto.encryptAll(messages))).isEqualTo(messages);
+    }
+
+    @Test
+    public void testInterruptedEncryptAllThrows() throws Exception {
+        if (_input == null) return;
+
+        // Below and above the number of messages that are encrypted in parallel
+        for (int count : new int[] { 10, 1000 }) {
+            final List<String> messages = newArrayList();
+            for (int i = 0; i < count; i++)
+                messages.add(_input + i);
+            Thread.currentThread().interrupt();
+            try {
+                _crypto.encryptAll(messages);
+                failBecauseExceptionWasNotThrown(InterruptedException.class);
+            } catch (InterruptedException _) {
+            } finally {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    @Test
+    public void testBlindIndexIsDeterministicPerColumn() throws Exception {
+        if (_input == null) return;
+
+        assertThat(_crypto.blindIndex("email", _input)).isEqualTo(_crypto.blindIndex("email", _input));
+        assertThat(_crypto.blindIndex("email", _input)).isNotEqualTo(_crypto.blindIndex("phone", _input));
+    }
+
+    private byte[] encrypt(byte[] message) throws Exception {
+        final ByteArrayOutputStream digest = new ByteArrayOutputStream();
+        _crypto.encrypt(new ByteArrayInputStream(message), digest);
+        return digest.toByteArray();
+    }
+
+    private byte[] decipher(byte[] digest) throws Exception {
+        final ByteArrayOutputStream clear = new ByteArrayOutputStream();
+        _crypto.decipher(new ByteArrayInputStream(digest), clear);
+        return clear.toByteArray();
+    }
+
+    private static byte[] repeat(String text, int length) throws Exception {
+        final byte[] bytes = text.getBytes("UTF-8");
+        final byte[] repeated = new byte[length];
+        for (int i = 0; i < length; i++)
+            repeated[i] = bytes[i % bytes.length];
+        return repeated;
+    }
+
+    /** Version and salt */
+    private static final int _STREAM_HEADER_LENGTH = 1 + 16;
+    private static final int _SEGMENT_SIZE = 64 * 1024;
+    private static final int _TAG_LENGTH = 16;
     private String _input;
     private CryptographyUtilities _crypto;
 }
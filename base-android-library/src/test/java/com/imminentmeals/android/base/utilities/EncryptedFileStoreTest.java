@@ -0,0 +1,173 @@
+package com.imminentmeals.android.base.utilities;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/**
+ * <p>Test suite for {@link EncryptedFileStore}.</p>
+ * @author Dandre Allison
+ */
+public class EncryptedFileStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialize() throws Exception {
+        _store = new EncryptedFileStore(folder.getRoot(),
+                new CryptographyUtilities(CryptographyUtilities.generateKey()), _CHUNK_SIZE);
+        _content = new byte[_CHUNK_SIZE * 5 + 17];
+        new Random(42).nextBytes(_content);
+        _store.write(_NAME, new ByteArrayInputStream(_content));
+    }
+
+    @Test
+    public void testReadsWholeFile() throws Exception {
+        assertThat(read(0, _content.length)).isEqualTo(_content);
+    }
+
+    @Test
+    public void testReadsAcrossChunks() throws Exception {
+        final int position = _CHUNK_SIZE * 2 - 10;
+
+        assertThat(read(position, _CHUNK_SIZE + 20))
+                .isEqualTo(Arrays.copyOfRange(_content, position, position + _CHUNK_SIZE + 20));
+    }
+
+    @Test
+    public void testReadsPastEnd() throws Exception {
+        final EncryptedFileStore.EncryptedFile file = _store.open(_NAME);
+        try {
+            assertThat(file.length()).isEqualTo(_content.length);
+            assertThat(file.read(_content.length - 7, new byte[100], 0, 100)).isEqualTo(7);
+            assertThat(file.read(_content.length, new byte[100], 0, 100)).isEqualTo(-1);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testStoresEmptyFile() throws Exception {
+        _store.write("empty", new ByteArrayInputStream(new byte[0]));
+
+        final EncryptedFileStore.EncryptedFile file = _store.open("empty");
+        try {
+            assertThat(file.length()).isEqualTo(0);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void testTamperedChunkFails() throws Exception {
+        final RandomAccessFile raw = new RandomAccessFile(new File(folder.getRoot(), _NAME), "rw");
+        try {
+            raw.seek(raw.length() / 2);
+            final int value = raw.read();
+            raw.seek(raw.length() / 2);
+            raw.write(value ^ 1);
+        } finally {
+            raw.close();
+        }
+
+        try {
+            read(0, _content.length);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException _) { }
+    }
+
+    @Test
+    public void testTruncatedFileFails() throws Exception {
+        final RandomAccessFile raw = new RandomAccessFile(new File(folder.getRoot(), _NAME), "rw");
+        try {
+            // Drops the last chunk and its tag
+            raw.setLength(raw.length() - 17 - 32);
+        } finally {
+            raw.close();
+        }
+
+        try {
+            read(0, _CHUNK_SIZE * 5);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException _) { }
+    }
+
+    @Test
+    public void testHugeChunkSizeFailsBeforeAllocating() throws Exception {
+        final RandomAccessFile raw = new RandomAccessFile(new File(folder.getRoot(), _NAME), "rw");
+        try {
+            // The chunk size follows the version
+            raw.seek(1);
+            raw.writeInt(Integer.MAX_VALUE);
+        } finally {
+            raw.close();
+        }
+
+        try {
+            _store.open(_NAME);
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException _) { }
+    }
+
+    @Test
+    public void testLeavesNoTemporaryFiles() throws Exception {
+        _store.write(_NAME, new ByteArrayInputStream(_content));
+
+        assertThat(folder.getRoot().list()).containsOnly(_NAME);
+    }
+
+    @Test
+    public void testRefusesFileTooLargeToOpen() throws Exception {
+        final EncryptedFileStore store = new EncryptedFileStore(folder.getRoot(),
+                new CryptographyUtilities(CryptographyUtilities.generateKey()), _CHUNK_SIZE, _CHUNK_SIZE * 3);
+
+        try {
+            store.write("too-large", new ByteArrayInputStream(_content));
+            failBecauseExceptionWasNotThrown(IOException.class);
+        } catch (IOException _) { }
+        assertThat(folder.getRoot().list()).containsOnly(_NAME);
+    }
+
+    @Test
+    public void testDeletesAbandonedWrites() throws Exception {
+        final File abandoned = File.createTempFile(".write-", ".tmp", folder.getRoot());
+        final long a_day_ago = System.currentTimeMillis() - 24 * 60 * 60 * 1000;
+        assertThat(abandoned.setLastModified(a_day_ago)).isTrue();
+        final File in_progress = File.createTempFile(".write-", ".tmp", folder.getRoot());
+
+        _store.write(_NAME, new ByteArrayInputStream(_content));
+
+        assertThat(folder.getRoot().list()).containsOnly(_NAME, in_progress.getName());
+    }
+
+    private byte[] read(long position, int length) throws Exception {
+        final byte[] buffer = new byte[length];
+        final EncryptedFileStore.EncryptedFile file = _store.open(_NAME);
+        try {
+            // Reads in odd-sized pieces to cross chunk boundaries
+            int read = 0;
+            while (read < length)
+                read += file.read(position + read, buffer, read, Math.min(333, length - read));
+            return buffer;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static final int _CHUNK_SIZE = 1024;
+    private static final String _NAME = "media";
+    private EncryptedFileStore _store;
+    private byte[] _content;
+}
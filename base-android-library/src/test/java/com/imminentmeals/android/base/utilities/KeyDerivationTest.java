@@ -0,0 +1,64 @@
+package com.imminentmeals.android.base.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.crypto.SecretKey;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * <p>Test suite for {@link KeyDerivation}.</p>
+ * @author Dandre Allison
+ */
+public class KeyDerivationTest {
+
+    @After
+    public void cleanUp() {
+        KeyDerivation.clearCache();
+    }
+
+    @Test
+    public void testParsesStoredDerivation() {
+        final KeyDerivation derivation = new KeyDerivation(new byte[] { 1, 2, 3, (byte) 0xFF }, 12345);
+
+        assertThat(KeyDerivation.parse(derivation.toString())).isEqualTo(derivation);
+    }
+
+    @Test
+    public void testCalibratesAtLeastMinimum() throws Exception {
+        assertThat(KeyDerivation.calibrate(1).iterations()).isGreaterThanOrEqualTo(KeyDerivation.MINIMUM_ITERATIONS);
+    }
+
+    @Test
+    public void testDerivesSameKeyAsGenerate() throws Exception {
+        final KeyDerivation derivation = new KeyDerivation(new byte[KeyDerivation.SALT_LENGTH], 2000);
+        final SecretKey expected = CryptographyUtilities.generateKey("passphrase".toCharArray(), derivation);
+
+        assertThat(derivation.deriveKey("passphrase".toCharArray()).get().getEncoded())
+                .isEqualTo(expected.getEncoded());
+        // Cached
+        assertThat(derivation.deriveKey("passphrase".toCharArray()).get().getEncoded())
+                .isEqualTo(expected.getEncoded());
+    }
+
+    @Test
+    public void testDifferentPassphrasesDeriveDifferentKeys() throws Exception {
+        final KeyDerivation derivation = new KeyDerivation(new byte[KeyDerivation.SALT_LENGTH], 2000);
+
+        assertThat(derivation.deriveKey("one".toCharArray()).get().getEncoded())
+                .isNotEqualTo(derivation.deriveKey("two".toCharArray()).get().getEncoded());
+    }
+
+    @Test
+    public void testDifferentSaltsDeriveDifferentKeys() throws Exception {
+        final byte[] salt = new byte[KeyDerivation.SALT_LENGTH];
+        final KeyDerivation derivation = new KeyDerivation(salt, 2000);
+        salt[0] = 1;
+        final KeyDerivation other_derivation = new KeyDerivation(salt, 2000);
+
+        // The cached key of one derivation isn't the other's
+        assertThat(derivation.deriveKey("passphrase".toCharArray()).get().getEncoded())
+                .isNotEqualTo(other_derivation.deriveKey("passphrase".toCharArray()).get().getEncoded());
+    }
+}
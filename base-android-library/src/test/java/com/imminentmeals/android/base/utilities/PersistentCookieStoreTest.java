@@ -0,0 +1,239 @@
+package com.imminentmeals.android.base.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.SecretKey;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for {@link PersistentCookieStore}.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class PersistentCookieStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void initialize() throws Exception {
+        _file = new File(folder.getRoot(), "cookies");
+        _key = CryptographyUtilities.generateKey();
+        _crypto = new CryptographyUtilities(_key);
+        _store = new PersistentCookieStore(_file, _crypto);
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        // Writes what's queued before the folder is deleted
+        _store.flush();
+    }
+
+    @Test
+    public void testMatchesDomainAndPath() throws Exception {
+        _store.add(_API, cookie("host", null, null));
+        _store.add(_API, cookie("domain", ".example.com", "/"));
+        _store.add(_API, cookie("versioned", null, "/v2"));
+        _store.add(_API, cookie("other", "other.com", "/"));
+
+        assertThat(names(_store.get(URI.create("https://api.example.com/v2/items"))))
+                .containsOnly("host", "domain", "versioned");
+        assertThat(names(_store.get(URI.create("https://api.example.com/v20"))))
+                .containsOnly("host", "domain");
+        assertThat(names(_store.get(URI.create("https://www.example.com/")))).containsOnly("domain");
+        assertThat(names(_store.get(URI.create("https://example.com/")))).containsOnly("domain");
+        assertThat(_store.getURIs()).hasSize(3);
+    }
+
+    @Test
+    public void testSecureCookiesOnlyOverHttps() throws Exception {
+        final HttpCookie cookie = cookie("secure", null, "/");
+        cookie.setSecure(true);
+        _store.add(_API, cookie);
+
+        assertThat(_store.get(URI.create("http://api.example.com/"))).isEmpty();
+        assertThat(_store.get(_API)).hasSize(1);
+    }
+
+    @Test
+    public void testReplacesAndExpires() throws Exception {
+        _store.add(_API, cookie("session", null, "/"));
+        final HttpCookie replacement = cookie("session", null, "/");
+        replacement.setValue("replaced");
+        _store.add(_API, replacement);
+
+        assertThat(_store.get(_API)).hasSize(1);
+        assertThat(_store.get(_API).get(0).getValue()).isEqualTo("replaced");
+
+        final HttpCookie expired = cookie("session", null, "/");
+        expired.setMaxAge(0);
+        _store.add(_API, expired);
+        assertThat(_store.get(_API)).isEmpty();
+    }
+
+    @Test
+    public void testPersistsThroughRelaunch() throws Exception {
+        final HttpCookie expiring = cookie("expiring", ".example.com", "/");
+        expiring.setMaxAge(3600);
+        _store.add(_API, expiring);
+        _store.add(_API, cookie("session", null, "/"));
+        _store.add(_API, cookie("removed", null, "/"));
+        _store.remove(_API, cookie("removed", null, "/"));
+        _store.flush();
+
+        final List<HttpCookie> cookies = new PersistentCookieStore(_file, _crypto).get(_API);
+        assertThat(names(cookies)).containsOnly("expiring", "session");
+        for (HttpCookie cookie : cookies)
+            if (cookie.getName().equals("expiring"))
+                assertThat(cookie.getMaxAge()).isGreaterThan(3500).isLessThanOrEqualTo(3600);
+    }
+
+    @Test
+    public void testCompactsInBackground() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            final HttpCookie cookie = cookie("session", null, "/");
+            cookie.setValue("value" + i);
+            _store.add(_API, cookie);
+        }
+        _store.flush();
+        final long compacted_length = _file.length();
+        _store.add(_API, cookie("other", null, "/"));
+        _store.flush();
+
+        // Far fewer than the 501 records written
+        assertThat(compacted_length).isLessThan((_file.length() - compacted_length) * 100);
+        final List<HttpCookie> cookies = new PersistentCookieStore(_file, _crypto).get(_API);
+        assertThat(names(cookies)).containsOnly("session", "other");
+    }
+
+    @Test
+    public void testDropsRecordCutOff() throws Exception {
+        _store.add(_API, cookie("first", null, "/"));
+        _store.add(_API, cookie("second", null, "/"));
+        _store.flush();
+        final RandomAccessFile raw = new RandomAccessFile(_file, "rw");
+        try {
+            raw.setLength(raw.length() - 5);
+        } finally {
+            raw.close();
+        }
+
+        final PersistentCookieStore relaunched = new PersistentCookieStore(_file, _crypto);
+        assertThat(names(relaunched.get(_API))).containsOnly("first");
+        // Stays readable after more records are appended to the compacted file
+        relaunched.add(_API, cookie("third", null, "/"));
+        relaunched.flush();
+        assertThat(names(new PersistentCookieStore(_file, _crypto).get(_API))).containsOnly("first", "third");
+    }
+
+    @Test
+    public void testRemovesAll() throws Exception {
+        _store.add(_API, cookie("session", null, "/"));
+
+        assertThat(_store.removeAll()).isTrue();
+        assertThat(_store.getCookies()).isEmpty();
+        _store.flush();
+        assertThat(new PersistentCookieStore(_file, _crypto).getCookies()).isEmpty();
+    }
+
+    @Test
+    public void testKeepsUnreadableFileIntact() throws Exception {
+        _store.add(_API, cookie("stored", null, "/"));
+        _store.flush();
+        final long length = _file.length();
+
+        // The key isn't available while the file is read, but is by the time cookies are added
+        final PersistentCookieStore unreadable = new PersistentCookieStore(_file,
+                new CryptographyUtilities(new KeyAvailableOnSecondTry(_key)));
+        assertThat(unreadable.get(_API)).isEmpty();
+        // Enough records that the file would be compacted
+        for (int i = 0; i < 100; i++)
+            unreadable.add(_API, cookie("memory" + i, null, "/"));
+        assertThat(unreadable.get(_API)).hasSize(100);
+        unreadable.flush();
+
+        assertThat(_file.length()).isEqualTo(length);
+        assertThat(names(new PersistentCookieStore(_file, _crypto).get(_API))).containsOnly("stored");
+    }
+
+    private static HttpCookie cookie(String name, String domain, String path) {
+        final HttpCookie cookie = new HttpCookie(name, "value");
+        if (domain != null) cookie.setDomain(domain);
+        if (path != null) cookie.setPath(path);
+        return cookie;
+    }
+
+    private static List<String> names(List<HttpCookie> cookies) {
+        final List<String> names = newArrayList();
+        for (HttpCookie cookie : cookies)
+            names.add(cookie.getName());
+        return names;
+    }
+
+    /**
+     * <p>Fails to provide the key the first time, as when provisioning it fails.</p>
+     */
+    private static class KeyAvailableOnSecondTry implements Future<SecretKey> {
+
+        KeyAvailableOnSecondTry(SecretKey key) {
+            _key = key;
+        }
+
+        @Override
+        public boolean cancel(boolean may_interrupt) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public SecretKey get() throws ExecutionException {
+            if (_has_failed.compareAndSet(false, true))
+                throw new ExecutionException(new IllegalStateException("Not provisioned"));
+            return _key;
+        }
+
+        @Override
+        public SecretKey get(long timeout, TimeUnit unit) throws ExecutionException {
+            return get();
+        }
+
+        private final SecretKey _key;
+        private final AtomicBoolean _has_failed = new AtomicBoolean();
+    }
+
+    private static final URI _API = URI.create("https://api.example.com/");
+    private File _file;
+    private SecretKey _key;
+    private CryptographyUtilities _crypto;
+    private PersistentCookieStore _store;
+}
@@ -0,0 +1,64 @@
+package com.imminentmeals.android.base.utilities;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * <p>Test suite for {@link WorkerPool}.</p>
+ * @author Dandre Allison
+ */
+public class WorkerPoolTest {
+
+    @Test
+    public void testTellsItsOwnThreadsApart() throws Exception {
+        final WorkerPool workers = new WorkerPool(2);
+        final WorkerPool other_workers = new WorkerPool(2);
+
+        assertThat(workers.isWorkerThread()).isFalse();
+        assertThat(isWorkerThread(workers, workers)).isTrue();
+        assertThat(isWorkerThread(other_workers, workers)).isFalse();
+    }
+
+    @Test(timeout = 10000)
+    public void testSplitFromWorkerThreadRunsInline() throws Exception {
+        final WorkerPool workers = new WorkerPool(1);
+        final FutureTask<Integer> outer = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                // The pool's only thread is running this, so the inner part would never start if it were queued
+                final FutureTask<Integer> inner = new FutureTask<>(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return 42;
+                    }
+                });
+                if (workers.isWorkerThread())
+                    inner.run();
+                else
+                    workers.execute(inner);
+                return inner.get();
+            }
+        });
+        workers.execute(outer);
+
+        assertThat(outer.get()).isEqualTo(42);
+    }
+
+    /**
+     * <p>Asks the given pool, from a thread of the other pool, whether it's one of its threads.</p>
+     */
+    private static boolean isWorkerThread(WorkerPool running_pool, final WorkerPool asked_pool) throws Exception {
+        final FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return asked_pool.isWorkerThread();
+            }
+        });
+        running_pool.execute(task);
+        return task.get();
+    }
+}
@@ -0,0 +1,193 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for saving {@link ActiveRecord}s created from the light projection.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class ActiveRecordLazyColumnsTest {
+
+    @Before
+    public void initialize() {
+        _database = SQLiteDatabase.create(null);
+        _database.execSQL("CREATE TABLE notes (_id INTEGER PRIMARY KEY, title TEXT, body TEXT)");
+        _database.execSQL("INSERT INTO notes (_id, title, body) VALUES (1, 'title', 'stored body')");
+        ShadowContentResolver.registerProvider(_AUTHORITY, new NotesProvider());
+    }
+
+    @After
+    public void cleanUp() {
+        _database.close();
+    }
+
+    @Test
+    public void testMakeDirtyKeepsUnloadedLazyColumns() {
+        final Note note = new Note();
+        note.setId(1);
+        note.unloadLazyColumns();
+        note.title = "renamed";
+        note.makeDirty(true);
+
+        note.save();
+
+        assertThat(column("title")).isEqualTo("renamed");
+        assertThat(column("body")).isEqualTo("stored body");
+    }
+
+    @Test
+    public void testUntrackedSaveKeepsUnloadedLazyColumns() {
+        final Note note = new Note();
+        note.setId(1);
+        note.unloadLazyColumns();
+        note.title = "renamed";
+
+        note.save();
+
+        assertThat(column("title")).isEqualTo("renamed");
+        assertThat(column("body")).isEqualTo("stored body");
+    }
+
+    @Test
+    public void testSetLazyColumnIsWritten() {
+        final Note note = new Note();
+        note.setId(1);
+        note.unloadLazyColumns();
+        note.setBody("new body");
+
+        note.save();
+
+        assertThat(column("title")).isEqualTo("title");
+        assertThat(column("body")).isEqualTo("new body");
+    }
+
+    @Test
+    public void testMakeDirtyAfterSettingLazyColumnWritesIt() {
+        final Note note = new Note();
+        note.setId(1);
+        note.unloadLazyColumns();
+        note.setBody("new body");
+        note.title = "renamed";
+        note.makeDirty(true);
+
+        note.save();
+
+        assertThat(column("title")).isEqualTo("renamed");
+        assertThat(column("body")).isEqualTo("new body");
+    }
+
+    private String column(String column) {
+        final Cursor cursor = _database.rawQuery("SELECT " + column + " FROM notes WHERE _id = 1", null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * <p>Record whose body is loaded lazily, and isn't loaded in these tests.</p>
+     */
+    private static class Note extends ActiveRecord {
+        String title;
+        String body;
+
+        Note() {
+            super(_CONTENT_URI);
+        }
+
+        void setBody(String body) {
+            this.body = body;
+            markDirty(1);
+        }
+
+        @Override
+        protected String[] projection() {
+            return new String[] { "title", "body" };
+        }
+
+        @Override
+        protected String[] lazyColumns() {
+            return new String[] { "body" };
+        }
+
+        @Override
+        protected ValuesBuilder createBuilder() {
+            final ValuesBuilder builder = new ValuesBuilder(Robolectric.application, _CONTENT_URI) { };
+            builder.contentValues().put("title", title);
+            builder.contentValues().put("body", body);
+            return builder;
+        }
+
+        @Override
+        protected ContentResolver getContentResolver() {
+            return Robolectric.application.getContentResolver();
+        }
+
+        @Override
+        protected void setPropertiesFromCursor(Cursor cursor) {
+            title = cursor.getString(0);
+            body = cursor.getString(1);
+        }
+    }
+
+    /**
+     * <p>Provider that updates the notes table by id.</p>
+     */
+    private class NotesProvider extends ContentProvider {
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] arguments, String sort_order) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] arguments) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] arguments) {
+            return _database.update("notes", values, "_id = ?", new String[] { uri.getLastPathSegment() });
+        }
+    }
+
+    private static final String _AUTHORITY = "com.imminentmeals.android.base.test";
+    private static final Uri _CONTENT_URI = Uri.parse("content://" + _AUTHORITY + "/notes");
+    private SQLiteDatabase _database;
+}
@@ -0,0 +1,104 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for the aggregates of {@link SqliteMigration} and {@link QueryBuilder#aggregate(SQLiteDatabase,
+ * String, String, String)}, against the scans they replace.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class AggregateTest {
+
+    @Before
+    public void initialize() {
+        _database = SQLiteDatabase.create(null);
+        new SqliteMigration() {
+            @Override
+            public void up(SQLiteDatabase database) {
+                database.execSQL(CREATE_TABLE + "files (_id INTEGER PRIMARY KEY, name TEXT, owner TEXT, size INTEGER, "
+                        + replaceOnConflictKeys("name") + ")");
+                database.execSQL("INSERT INTO files (name, owner, size) VALUES ('before', 'alice', 7)");
+                createAggregate(database, "files", "owner", "size");
+            }
+        }.up(_database);
+    }
+
+    @After
+    public void cleanUp() {
+        _database.close();
+    }
+
+    @Test
+    public void testAggregatesRowsAlreadyInTable() {
+        assertThat(count("alice")).isEqualTo(1);
+        assertThat(size("alice")).isEqualTo(7);
+    }
+
+    @Test
+    public void testReplacedRowsAreSubtracted() {
+        for (int size = 1; size <= 3; size++)
+            _database.execSQL("INSERT INTO files (name, owner, size) VALUES ('report', 'bob', ?)", new Object[] { size });
+
+        assertThat(count("bob")).isEqualTo(1);
+        assertThat(size("bob")).isEqualTo(3);
+        assertMatchesScan();
+    }
+
+    @Test
+    public void testUpdatedKeyMovesRow() {
+        _database.execSQL("INSERT INTO files (name, owner, size) VALUES ('report', 'bob', 5)");
+        _database.execSQL("UPDATE files SET owner = 'carol' WHERE name = 'report'");
+
+        assertThat(count("bob")).isEqualTo(0);
+        assertThat(count("carol")).isEqualTo(1);
+        assertThat(size("carol")).isEqualTo(5);
+        // Renaming onto another row's name replaces it
+        _database.execSQL("UPDATE files SET name = 'before' WHERE name = 'report'");
+        assertThat(count("alice")).isEqualTo(0);
+        assertMatchesScan();
+    }
+
+    @Test
+    public void testDeletedRowsAreSubtracted() {
+        _database.execSQL("INSERT INTO files (name, owner, size) VALUES ('report', 'alice', 5)");
+        _database.execSQL("DELETE FROM files WHERE name = 'before'");
+
+        assertThat(count("alice")).isEqualTo(1);
+        assertThat(size("alice")).isEqualTo(5);
+        assertMatchesScan();
+    }
+
+    private long count(String owner) {
+        return new QueryBuilder(Robolectric.application).expression("owner", QueryBuilder.Op.IS_EQUAL_TO, owner)
+                .aggregate(_database, "files", "owner", SqliteMigration.AGGREGATE_COUNT);
+    }
+
+    private long size(String owner) {
+        return new QueryBuilder(Robolectric.application).expression("owner", QueryBuilder.Op.IS_EQUAL_TO, owner)
+                .aggregate(_database, "files", "owner", "size");
+    }
+
+    private void assertMatchesScan() {
+        assertThat(new QueryBuilder(Robolectric.application)
+                .aggregate(_database, "files", "owner", SqliteMigration.AGGREGATE_COUNT))
+                .isEqualTo(new QueryBuilder(Robolectric.application).longFromFirstRow(_database, "files", "count(*)"));
+        assertThat(new QueryBuilder(Robolectric.application).aggregate(_database, "files", "owner", "size"))
+                .isEqualTo(new QueryBuilder(Robolectric.application)
+                        .longFromFirstRow(_database, "files", "ifnull(sum(size), 0)"));
+    }
+
+    private SQLiteDatabase _database;
+}
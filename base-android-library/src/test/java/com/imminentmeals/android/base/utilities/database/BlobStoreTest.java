@@ -0,0 +1,199 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for reading back blobs written through {@link ValuesBuilder#putBlob(String, java.io.InputStream)} and
+ * {@link ValuesBuilder#putBlob(String, byte[])}, whether they're kept in the {@link BlobStore} or inline.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class BlobStoreTest {
+
+    @Before
+    public void initialize() {
+        _database = SQLiteDatabase.create(null);
+        _database.execSQL("CREATE TABLE attachments (_id INTEGER PRIMARY KEY, data BLOB)");
+        ShadowContentResolver.registerProvider(_AUTHORITY, new AttachmentsProvider());
+    }
+
+    @After
+    public void cleanUp() {
+        _database.close();
+    }
+
+    @Test
+    public void testStreamsBlobWrittenFromStream() throws IOException {
+        final byte[] blob = blob(BlobStore.EXTERNAL_BLOB_THRESHOLD * 3);
+        final Builder builder = new Builder();
+        builder.putBlob("data", new ByteArrayInputStream(blob));
+        final long id = ContentUris.parseId(builder.insert());
+
+        assertThat(BlobStore.isReference(text(id))).isTrue();
+        assertThat(read(id)).isEqualTo(blob);
+    }
+
+    @Test
+    public void testStreamsInlineBlob() throws IOException {
+        final byte[] blob = blob(1024);
+        final Builder builder = new Builder();
+        builder.putBlob("data", blob);
+        final long id = ContentUris.parseId(builder.insert());
+
+        assertThat(read(id)).isEqualTo(blob);
+    }
+
+    @Test
+    public void testReadsStoredBlobFromFirstRow() throws IOException {
+        final byte[] blob = blob(BlobStore.EXTERNAL_BLOB_THRESHOLD * 2);
+        final Builder builder = new Builder();
+        builder.putBlob("data", blob);
+        final long id = ContentUris.parseId(builder.insert());
+
+        assertThat(BlobStore.isReference(text(id))).isTrue();
+        assertThat(new QueryBuilder(Robolectric.application).expression("_id", QueryBuilder.Op.IS_EQUAL_TO, id)
+                .blobFromFirstRow(_CONTENT_URI, "data")).isEqualTo(blob);
+        assertThat(new QueryBuilder(Robolectric.application).expression("_id", QueryBuilder.Op.IS_EQUAL_TO, id)
+                .blobFromFirstRow(_database, "attachments", "data")).isEqualTo(blob);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsTextThatIsNotReference() throws IOException {
+        final ContentValues values = new ContentValues();
+        values.put("data", "../../shared_prefs/settings.xml");
+        read(_database.insert("attachments", null, values));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMapRejectsTextThatIsNotReference() throws IOException {
+        final ContentValues values = new ContentValues();
+        values.put("data", "../../shared_prefs/settings.xml");
+        final long id = _database.insert("attachments", null, values);
+
+        new QueryBuilder(Robolectric.application).expression("_id", QueryBuilder.Op.IS_EQUAL_TO, id)
+                .blobBufferFromFirstRow(_CONTENT_URI, "data");
+    }
+
+    @Test
+    public void testRetainAllDeletesAbandonedWrites() throws IOException {
+        final BlobStore blob_store = new BlobStore(Robolectric.application);
+        final String hash = blob_store.put(blob(1024));
+        final File directory = new File(Robolectric.application.getFilesDir(), "blobs");
+        final File abandoned = File.createTempFile("blob", ".tmp", directory);
+        final long a_day_ago = System.currentTimeMillis() - 24 * 60 * 60 * 1000;
+        assertThat(abandoned.setLastModified(a_day_ago)).isTrue();
+
+        blob_store.retainAll(Collections.singleton(hash));
+
+        assertThat(abandoned.exists()).isFalse();
+        assertThat(blob_store.contains(hash)).isTrue();
+        // Nothing but stored blobs is left behind by writes
+        for (String name : directory.list())
+            assertThat(BlobStore.isReference(name)).isTrue();
+    }
+
+    private static byte[] blob(int length) {
+        final byte[] blob = new byte[length];
+        new Random(42).nextBytes(blob);
+        return blob;
+    }
+
+    private byte[] read(long id) throws IOException {
+        final InputStream input = new QueryBuilder(Robolectric.application)
+                .expression("_id", QueryBuilder.Op.IS_EQUAL_TO, id)
+                .blobStream(_CONTENT_URI, "data");
+        assertThat(input).isNotNull();
+        try {
+            return ByteStreams.toByteArray(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    private String text(long id) {
+        final Cursor cursor = _database.rawQuery("SELECT data FROM attachments WHERE _id = " + id
+                + " AND typeof(data) = 'text'", null);
+        try {
+            return cursor.moveToFirst()? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * <p>Builds attachment rows.</p>
+     */
+    private static class Builder extends ValuesBuilder {
+
+        Builder() {
+            super(Robolectric.application, _CONTENT_URI);
+        }
+    }
+
+    /**
+     * <p>Provider over the attachments table.</p>
+     */
+    private class AttachmentsProvider extends ContentProvider {
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] arguments, String sort_order) {
+            return _database.query("attachments", projection, selection, arguments, null, null, sort_order);
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return ContentUris.withAppendedId(_CONTENT_URI, _database.insert("attachments", null, values));
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] arguments) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] arguments) {
+            return 0;
+        }
+    }
+
+    private static final String _AUTHORITY = "com.imminentmeals.android.base.test";
+    private static final Uri _CONTENT_URI = Uri.parse("content://" + _AUTHORITY + "/attachments");
+    private SQLiteDatabase _database;
+}
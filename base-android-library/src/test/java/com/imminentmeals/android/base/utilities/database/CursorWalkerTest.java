@@ -0,0 +1,92 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for stopping a {@link CursorWalker} part way.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class CursorWalkerTest {
+
+    @After
+    public void cleanUp() {
+        // Clears the interrupt left by the walk
+        Thread.interrupted();
+    }
+
+    @Test
+    public void testWalksEveryRow() {
+        final RecordingWalker walker = new RecordingWalker();
+
+        assertThat(walker.walk(4)).isEqualTo(_ROW_COUNT);
+        assertThat(walker.walked).hasSize(_ROW_COUNT);
+        assertThat(walker.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void testCancelStopsWithinBatch() {
+        final RecordingWalker walker = new RecordingWalker() {
+            @Override
+            protected void step(Cursor cursor) {
+                super.step(cursor);
+                if (cursor.getLong(0) == 5) cancel();
+            }
+        };
+
+        assertThat(walker.walk(4)).isEqualTo(6);
+        assertThat(walker.walked).containsExactly(0L, 1L, 2L, 3L, 4L, 5L);
+        assertThat(walker.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testInterruptCancels() {
+        final RecordingWalker walker = new RecordingWalker() {
+            @Override
+            protected void step(Cursor cursor) {
+                super.step(cursor);
+                if (cursor.getLong(0) == 2) Thread.currentThread().interrupt();
+            }
+        };
+
+        assertThat(walker.walk(4)).isEqualTo(3);
+        assertThat(walker.isCancelled()).isTrue();
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    }
+
+    /**
+     * <p>Records the id of each row it walks over a cursor of {@value #_ROW_COUNT} rows.</p>
+     */
+    private static class RecordingWalker extends CursorWalker {
+        final List<Long> walked = newArrayList();
+
+        @Override
+        protected Cursor createCursor() {
+            final MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+            for (long id = 0; id < _ROW_COUNT; id++)
+                cursor.addRow(new Object[] { id });
+            return cursor;
+        }
+
+        @Override
+        protected void step(Cursor cursor) {
+            walked.add(cursor.getLong(0));
+        }
+    }
+
+    private static final int _ROW_COUNT = 10;
+}
@@ -0,0 +1,153 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for the full-text index of {@link SqliteMigration} and its {@link QueryBuilder} searches, against
+ * the {@code LIKE} scan they replace, at {@value #_ROW_COUNT} rows. The rows are written once for the suite, and each
+ * test's writes are rolled back.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class FullTextSearchTest {
+
+    @BeforeClass
+    public static void initializeSuite() {
+        _database = SQLiteDatabase.create(null);
+        new SqliteMigration() {
+            @Override
+            public void up(SQLiteDatabase database) {
+                database.execSQL(CREATE_TABLE + "notes (_id INTEGER PRIMARY KEY, title TEXT, body TEXT, "
+                        + replaceOnConflictKeys("title") + ")");
+            }
+        }.up(_database);
+        final Random random = new Random(42);
+        final SQLiteStatement insert = _database.compileStatement("INSERT INTO notes (body) VALUES (?)");
+        _database.beginTransaction();
+        try {
+            for (int i = 0; i < _ROW_COUNT; i++) {
+                final StringBuilder body = new StringBuilder();
+                for (int j = 0; j < _WORDS_PER_ROW; j++)
+                    body.append(_WORDS[random.nextInt(_WORDS.length)]).append(' ');
+                // The search term is in about one row in a hundred
+                if (random.nextInt(100) == 0) body.append(_TERM);
+                insert.bindString(1, body.toString());
+                insert.executeInsert();
+            }
+            _database.setTransactionSuccessful();
+        } finally {
+            _database.endTransaction();
+            insert.close();
+        }
+        new SqliteMigration() {
+            @Override
+            public void up(SQLiteDatabase database) {
+                createFullTextIndex(database, "notes", "body");
+            }
+        }.up(_database);
+    }
+
+    @AfterClass
+    public static void cleanUpSuite() {
+        _database.close();
+    }
+
+    @Before
+    public void initialize() {
+        _database.beginTransaction();
+    }
+
+    @After
+    public void cleanUp() {
+        // Never marked successful, so the test's writes are rolled back
+        _database.endTransaction();
+    }
+
+    @Test
+    public void testMatchFindsSameRowsAsLike() {
+        final List<Long> liked = ids(like());
+        final List<Long> matched = ids(match());
+
+        assertThat(liked).isNotEmpty();
+        assertThat(matched).isEqualTo(liked);
+    }
+
+    @Test
+    public void testIndexFollowsWrites() {
+        _database.execSQL("UPDATE notes SET body = 'no longer' WHERE _id = ?", new Object[] { ids(match()).get(0) });
+        _database.execSQL("DELETE FROM notes WHERE _id = ?", new Object[] { ids(match()).get(0) });
+        _database.execSQL("INSERT INTO notes (body) VALUES ('" + _TERM + " again')");
+
+        assertThat(ids(match())).isEqualTo(ids(like()));
+    }
+
+    @Test
+    public void testIndexDropsReplacedRows() {
+        _database.execSQL("INSERT INTO notes (title, body) VALUES ('draft', '" + _TERM + " first')");
+        _database.execSQL("INSERT INTO notes (title, body) VALUES ('draft', '" + _TERM + " second')");
+
+        assertThat(ids(match())).isEqualTo(ids(like()));
+    }
+
+    @Test
+    public void testRanksByNumberOfOccurrences() {
+        _database.execSQL("INSERT INTO notes (_id, body) VALUES (-1, '" + _TERM + ' ' + _TERM + ' ' + _TERM + "')");
+        _database.execSQL("INSERT INTO notes (_id, body) VALUES (-2, '" + _TERM + ' ' + _TERM + "')");
+
+        final List<Long> ranked = ids(new QueryBuilder(Robolectric.application)
+                .rankedSearch(_database, "notes", new String[] { "_id" }, _TERM));
+
+        assertThat(ranked.subList(0, 2)).containsExactly(-1L, -2L);
+        assertThat(ranked).hasSize(ids(match()).size());
+    }
+
+    private Cursor like() {
+        return new QueryBuilder(Robolectric.application)
+                .expression("body", QueryBuilder.Op.IS_LIKE, "%" + _TERM + "%")
+                .query(_database, "notes", new String[] { "_id" }, "_id");
+    }
+
+    private Cursor match() {
+        return new QueryBuilder(Robolectric.application)
+                .expressionMatches("notes", _TERM)
+                .query(_database, "notes", new String[] { "_id" }, "_id");
+    }
+
+    private static List<Long> ids(Cursor cursor) {
+        try {
+            final List<Long> ids = newArrayList();
+            while (cursor.moveToNext())
+                ids.add(cursor.getLong(0));
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static final int _ROW_COUNT = 50000;
+    private static final int _WORDS_PER_ROW = 12;
+    private static final String _TERM = "zebra";
+    private static final String[] _WORDS = { "apple", "river", "stone", "cloud", "maple", "ocean", "tiger", "lemon",
+            "piano", "candle", "forest", "garden", "harbor", "island", "jacket", "kettle" };
+    private static SQLiteDatabase _database;
+}
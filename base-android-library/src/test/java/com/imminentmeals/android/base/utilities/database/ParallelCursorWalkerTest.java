@@ -0,0 +1,93 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import javax.annotation.Nonnull;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for {@link ParallelCursorWalker}.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class ParallelCursorWalkerTest {
+
+    @Test
+    public void testSumsEveryRow() throws InterruptedException {
+        assertThat(new SummingWalker(_ROW_COUNT).walk()[0]).isEqualTo(_ROW_COUNT * (_ROW_COUNT + 1) / 2);
+    }
+
+    @Test(timeout = 10000)
+    public void testWalkFromPartitionRunsInline() throws InterruptedException {
+        // More partitions than threads, each waiting on a walk of its own
+        final SummingWalker walker = new SummingWalker(_PARTITION_COUNT) {
+            @Override
+            protected void step(Cursor cursor, long[] accumulator) {
+                try {
+                    accumulator[0] += new SummingWalker(_ROW_COUNT).walk()[0];
+                } catch (InterruptedException error) {
+                    throw new IllegalStateException(error);
+                }
+            }
+        };
+
+        assertThat(walker.walk()[0]).isEqualTo(_PARTITION_COUNT * _ROW_COUNT * (_ROW_COUNT + 1) / 2);
+    }
+
+    /**
+     * <p>Sums the ids from 1 to the given last id, in {@value #_PARTITION_COUNT} partitions.</p>
+     */
+    private static class SummingWalker extends ParallelCursorWalker<long[]> {
+
+        SummingWalker(long last_id) {
+            super(_PARTITION_COUNT);
+            _last_id = last_id;
+        }
+
+        @Nonnull
+        @Override
+        protected long[] idRange() {
+            return new long[] { 1, _last_id };
+        }
+
+        @Override
+        protected Cursor createCursor(long first_id, long last_id) {
+            final MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+            for (long id = first_id; id <= last_id; id++)
+                cursor.addRow(new Object[] { id });
+            return cursor;
+        }
+
+        @Nonnull
+        @Override
+        protected long[] createAccumulator() {
+            return new long[1];
+        }
+
+        @Override
+        protected void step(Cursor cursor, long[] accumulator) {
+            accumulator[0] += cursor.getLong(0);
+        }
+
+        @Nonnull
+        @Override
+        protected long[] merge(long[] accumulator, long[] other) {
+            accumulator[0] += other[0];
+            return accumulator;
+        }
+
+        private final long _last_id;
+    }
+
+    private static final int _ROW_COUNT = 100;
+    private static final int _PARTITION_COUNT = Runtime.getRuntime().availableProcessors() * 2;
+}
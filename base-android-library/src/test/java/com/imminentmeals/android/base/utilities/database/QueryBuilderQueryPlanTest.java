@@ -0,0 +1,151 @@
+package com.imminentmeals.android.base.utilities.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+import com.imminentmeals.android.base.utilities.CryptographyUtilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * <p>Test suite for the typed argument binding of {@link QueryBuilder}.</p>
+ * @author Dandre Allison
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class QueryBuilderQueryPlanTest {
+
+    @Before
+    public void initialize() {
+        _database = SQLiteDatabase.create(null);
+        _database.execSQL("CREATE TABLE records (_id INTEGER PRIMARY KEY, number INTEGER, untyped)");
+        _database.execSQL("CREATE INDEX records_number ON records (number)");
+        _database.execSQL("CREATE INDEX records_untyped ON records (untyped)");
+        for (int i = 0; i < 100; i++)
+            _database.execSQL("INSERT INTO records (number, untyped) VALUES (" + i + ", " + i + ")");
+        _query = new QueryBuilder(Robolectric.application);
+    }
+
+    @After
+    public void cleanUp() {
+        _database.close();
+    }
+
+    @Test
+    public void testLongLookupIsIndexSeek() {
+        _query.expression("number", QueryBuilder.Op.IS_EQUAL_TO, 42L);
+
+        assertThat(queryPlan()).contains("USING INDEX records_number");
+    }
+
+    @Test
+    public void testLongRangeIsIndexSeek() {
+        _query.expression("number", QueryBuilder.Op.IS_GREATER_THAN, 90L);
+
+        assertThat(queryPlan()).contains("USING INDEX records_number");
+    }
+
+    @Test
+    public void testIdLookupIsRowidSeek() {
+        _query.expression("_id", QueryBuilder.Op.IS_EQUAL_TO, 7L);
+
+        assertThat(queryPlan()).contains("USING INTEGER PRIMARY KEY");
+    }
+
+    @Test
+    public void testLongMatchesUntypedColumn() {
+        // Bound as TEXT, '42' would never equal the INTEGER 42 stored in a column without affinity
+        _query.expression("untyped", QueryBuilder.Op.IS_EQUAL_TO, 42L);
+
+        assertThat(queryPlan()).contains("USING INDEX records_untyped");
+        assertThat(_query.intFromFirstRow(_database, "records", "count(*)")).isEqualTo(1);
+    }
+
+    @Test
+    public void testDeleteBindsTypes() {
+        _query.expression("untyped", QueryBuilder.Op.IS_LESS_THAN, 10L);
+
+        assertThat(_query.delete(_database, "records")).isEqualTo(10);
+    }
+
+    @Test
+    public void testEncryptedEqualsIsIndexSeek() throws Exception {
+        final CryptographyUtilities crypto = new CryptographyUtilities(CryptographyUtilities.generateKey());
+        _database.execSQL("ALTER TABLE records ADD COLUMN email TEXT");
+        _database.execSQL("ALTER TABLE records ADD COLUMN email_blind_index TEXT");
+        _database.execSQL("CREATE INDEX records_email_blind_index ON records (email_blind_index)");
+        _database.execSQL("UPDATE records SET email = ?, email_blind_index = ? WHERE _id = 7",
+                new Object[] { crypto.encrypt("reader@example.com"), crypto.blindIndex("email", "reader@example.com") });
+
+        _query.expressionEncryptedEquals("email", "reader@example.com", crypto);
+
+        assertThat(queryPlan()).contains("USING INDEX records_email_blind_index");
+        assertThat(_query.longFromFirstRow(_database, "records", "_id")).isEqualTo(7);
+    }
+
+    @Test
+    public void testCreatesHelpersCursors() {
+        final AtomicInteger cursor_count = new AtomicInteger();
+        final SQLiteDatabase.CursorFactory factory = new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase database, SQLiteCursorDriver driver, String edit_table,
+                                    SQLiteQuery query) {
+                cursor_count.incrementAndGet();
+                return new SQLiteCursor(driver, edit_table, query);
+            }
+        };
+        final BaseSqliteOpenHelper helper = new BaseSqliteOpenHelper(Robolectric.application, null, factory, 1) {
+            @Override
+            protected SqliteMigration createMigration(int version) {
+                return new SqliteMigration() {
+                    @Override
+                    public void up(SQLiteDatabase database) {
+                        database.execSQL("CREATE TABLE records (_id INTEGER PRIMARY KEY, number INTEGER)");
+                        database.execSQL("INSERT INTO records (number) VALUES (42)");
+                    }
+                };
+            }
+        };
+        final SQLiteDatabase database = helper.getWritableDatabase();
+        try {
+            _query.expression("number", QueryBuilder.Op.IS_EQUAL_TO, 42L);
+
+            assertThat(_query.longFromFirstRow(database, "records", "_id")).isEqualTo(1);
+            assertThat(cursor_count.get()).isEqualTo(1);
+        } finally {
+            helper.close();
+        }
+    }
+
+    private String queryPlan() {
+        final Cursor cursor = _database.rawQueryWithFactory(
+                new QueryBuilder.TypedArgumentsCursorFactory(_query.typedArguments(), null),
+                "EXPLAIN QUERY PLAN SELECT * FROM records WHERE " + _query, null, "records");
+        try {
+            final StringBuilder plan = new StringBuilder();
+            // The detail is the last column
+            while (cursor.moveToNext())
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private SQLiteDatabase _database;
+    private QueryBuilder _query;
+}